@@ -51,7 +51,7 @@ public class CompareAction extends SyncViewAction {
 		ProgressMonitorDialog pmd = new ProgressMonitorDialog(PlatformUI.getWorkbench().getDisplay().getActiveShell());
 		try {
 			getSyncView().getProtocol().add("Starting directory comparison.");
-			pmd.run(true, true, new DiffTask(getSyncView()));
+			pmd.run(true, true, new DiffTask(getPlugin(), getSyncView()));
 			getSyncView().getProtocol().add("Finished directory comparison.");
 		} catch (Exception e) {
 			getSyncView().getProtocol().add("Directory comparison failed.");
@@ -1,6 +1,7 @@
 package net.syncarus.action;
 
 import net.syncarus.core.SyncTask;
+import net.syncarus.model.DiffNode;
 import net.syncarus.rcp.ResourceRegistry;
 
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -21,7 +22,8 @@ public class SyncAction extends SyncViewAction {
 	@Override
 	public void run() {
 		
-		if (getTreeViewer().getCheckedElements().length == 0) {
+		DiffNode rootNode = (DiffNode) getTreeViewer().getInput();
+		if (rootNode == null || !rootNode.hasCheckedDescendants()) {
 			MessageDialog.openInformation(getSyncView().getSite().getShell(), "Synchronization", 
 					"No files or folders are selected for synchronization!");
 			return;
@@ -40,7 +42,7 @@ public class SyncAction extends SyncViewAction {
 		try {
 			ProgressMonitorDialog pmd = new ProgressMonitorDialog(PlatformUI.getWorkbench().getDisplay()
 					.getActiveShell());
-			SyncTask job = new SyncTask(getSyncView(), getCheckedElements());
+			SyncTask job = new SyncTask(getPlugin(), getSyncView());
 
 			getSyncView().getProtocol().add("Starting synchronization process.");
 			pmd.run(true, true, job);
@@ -29,14 +29,6 @@ public abstract class SyncViewAction extends SyncarusAction {
 		return diffNodes;
 	}
 
-	protected List<DiffNode> getCheckedElements() {
-		List<DiffNode> diffNodes = new ArrayList<DiffNode>();
-		for (Object object : getTreeViewer().getCheckedElements())
-			diffNodes.add((DiffNode) object);
-
-		return diffNodes;
-	}
-	
 	protected boolean aquireLock() {
 		if (!getSyncView().aquireLock()) {
 			MessageDialog.openWarning(getSyncView().getViewSite().getShell(), "Application is busy", 
@@ -21,7 +21,7 @@ public class CheckAllAction extends SyncViewAction {
 		setText(checked ? "Check all nodes" : "Uncheck all nodes");
 		checked = !checked;
 		
-		for (DiffNode node : rootNode.getChildren())
-			getTreeViewer().setSubtreeChecked(node, checked);
+		rootNode.setSubtreeChecked(checked);
+		getTreeViewer().refresh();
 	}
 }
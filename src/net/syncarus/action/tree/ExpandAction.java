@@ -1,10 +1,20 @@
 package net.syncarus.action.tree;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.syncarus.action.SyncViewAction;
+import net.syncarus.model.DiffNode;
 import net.syncarus.rcp.ResourceRegistry;
 
+/**
+ * Expands the comparison tree level by level. Expanding stops before the
+ * number of displayed nodes would exceed {@link #MAX_EXPANDED_NODES}, so that
+ * huge trees don't create a widget for every node.
+ */
 public class ExpandAction extends SyncViewAction {
-	
+	private static final int MAX_EXPANDED_NODES = 10000;
+
 	public ExpandAction() {
 		setText("Expand tree");
 		setIcon(ResourceRegistry.IMAGE_EXPAND_TREE);
@@ -13,6 +23,28 @@ public class ExpandAction extends SyncViewAction {
 
 	@Override
 	public void run() {
-		getTreeViewer().expandAll();
+		DiffNode rootNode = (DiffNode) getTreeViewer().getInput();
+		if (rootNode == null)
+			return;
+
+		List<DiffNode> expanded = new ArrayList<DiffNode>();
+		List<DiffNode> level = rootNode.getChildren();
+		int remaining = MAX_EXPANDED_NODES - level.size();
+		while (!level.isEmpty()) {
+			List<DiffNode> nextLevel = new ArrayList<DiffNode>();
+			for (DiffNode node : level) {
+				if (!node.hasChildren())
+					continue;
+				remaining -= node.getChildren().size();
+				if (remaining < 0)
+					break;
+				expanded.add(node);
+				nextLevel.addAll(node.getChildren());
+			}
+			if (remaining < 0)
+				break;
+			level = nextLevel;
+		}
+		getTreeViewer().setExpandedElements(expanded.toArray());
 	}
 }
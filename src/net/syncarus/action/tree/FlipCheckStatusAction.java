@@ -2,10 +2,9 @@ package net.syncarus.action.tree;
 
 import net.syncarus.action.SyncViewAction;
 import net.syncarus.gui.SyncTreeViewer;
+import net.syncarus.model.DiffNode;
 import net.syncarus.rcp.ResourceRegistry;
 
-import org.eclipse.jface.viewers.CheckboxTreeViewer;
-import org.eclipse.jface.viewers.IStructuredSelection;
 
 public class FlipCheckStatusAction extends SyncViewAction {
 	
@@ -21,11 +20,8 @@ public class FlipCheckStatusAction extends SyncViewAction {
 
 	@Override
 	public void run() {
-		CheckboxTreeViewer viewer = getTreeViewer();
-		IStructuredSelection selection = (IStructuredSelection) viewer.getSelection();
-		for (Object selected : selection.toList()) {
-			boolean checkState = viewer.getChecked(selected);
-			viewer.setSubtreeChecked(selected, !checkState);
-		}
+		for (DiffNode node : getSelectedNodes())
+			node.setSubtreeChecked(!node.isChecked());
+		getTreeViewer().refresh();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package net.syncarus.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of file checksums. Every entry is keyed by the absolute
+ * path of a file and is only valid as long as the size, the modification date
+ * and the file key (e.g. device and inode) of that file are unchanged.<br>
+ * The cache is stored as an append-only log: new checksums are appended, and
+ * when the cache is loaded, later records replace earlier ones. The log gets
+ * compacted when it contains many outdated records.
+ */
+public class ChecksumCache {
+	private static final int FORMAT_VERSION = 1;
+
+	private static class Record {
+		final long size;
+		final long lastModified;
+		final String fileKey;
+		final byte[] digest;
+
+		Record(long size, long lastModified, String fileKey, byte[] digest) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+			this.digest = digest;
+		}
+
+		boolean matches(FileEntry entry) {
+			return size == entry.getSize() && lastModified == entry.getLastModified()
+					&& fileKey.equals(getFileKey(entry));
+		}
+	}
+
+	private final File logFile;
+	private final Map<String, Record> records = new ConcurrentHashMap<String, Record>();
+	private DataOutputStream log = null;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Loads the cache from <code>logFile</code>. A missing or damaged log
+	 * results in a partially filled or empty cache.
+	 */
+	public ChecksumCache(File logFile) {
+		this.logFile = logFile;
+		load();
+	}
+
+	private static String getFileKey(FileEntry entry) {
+		return entry.getFileKey() == null ? "" : entry.getFileKey().toString();
+	}
+
+	private void load() {
+		if (!logFile.isFile())
+			return;
+
+		int numOfRecords = 0;
+		boolean damaged = false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+			try {
+				if (in.readInt() != FORMAT_VERSION)
+					throw new IOException("Unknown checksum cache format");
+				while (true) {
+					String path;
+					try {
+						path = in.readUTF();
+					} catch (EOFException e) {
+						break;
+					}
+					long size = in.readLong();
+					long lastModified = in.readLong();
+					String fileKey = in.readUTF();
+					byte[] digest = new byte[in.readUnsignedByte()];
+					in.readFully(digest);
+					records.put(path, new Record(size, lastModified, fileKey, digest));
+					numOfRecords++;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the last record might be incomplete, all others are still fine
+			damaged = true;
+		}
+
+		// rewrite the log when it is damaged or mostly consists of outdated records
+		if (damaged || numOfRecords > 2 * records.size() + 1000)
+			compact();
+	}
+
+	private synchronized void compact() {
+		try {
+			closeLog();
+			File tmpFile = new File(logFile.getPath() + ".tmp");
+			DataOutputStream out = openLog(tmpFile, false);
+			try {
+				for (Map.Entry<String, Record> entry : records.entrySet())
+					write(out, entry.getKey(), entry.getValue());
+			} finally {
+				out.close();
+			}
+			if (!logFile.delete() || !tmpFile.renameTo(logFile))
+				throw new IOException("Cannot replace checksum cache '" + logFile.getAbsolutePath() + "'");
+		} catch (IOException e) {
+			// start from scratch, the cache is only an optimisation
+			records.clear();
+			logFile.delete();
+		}
+	}
+
+	private static DataOutputStream openLog(File file, boolean append) throws IOException {
+		boolean writeHeader = !append || !file.isFile() || file.length() == 0;
+		file.getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+		if (writeHeader)
+			out.writeInt(FORMAT_VERSION);
+		return out;
+	}
+
+	private static void write(DataOutputStream out, String path, Record record) throws IOException {
+		out.writeUTF(path);
+		out.writeLong(record.size);
+		out.writeLong(record.lastModified);
+		out.writeUTF(record.fileKey);
+		out.writeByte(record.digest.length);
+		out.write(record.digest);
+	}
+
+	/**
+	 * @return the cached checksum of the file, or <code>null</code> when there
+	 *         is no such checksum or when the file has been modified since
+	 */
+	public byte[] getDigest(FileEntry entry) {
+		Record record = records.get(entry.getFile().getAbsolutePath());
+		if (record == null || !record.matches(entry)) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return record.digest;
+	}
+
+	/**
+	 * Stores the checksum of a file which has been calculated from the file's
+	 * content described by <code>entry</code>.
+	 */
+	public void putDigest(FileEntry entry, byte[] digest) {
+		String path = entry.getFile().getAbsolutePath();
+		Record record = new Record(entry.getSize(), entry.getLastModified(), getFileKey(entry), digest);
+		records.put(path, record);
+		synchronized (this) {
+			try {
+				if (log == null)
+					log = openLog(logFile, true);
+				write(log, path, record);
+			} catch (IOException e) {
+				// the checksum remains cached in memory until the next start
+				closeLog();
+			}
+		}
+	}
+
+	/**
+	 * Writes all appended records to disk.
+	 */
+	public synchronized void flush() {
+		closeLog();
+	}
+
+	private synchronized void closeLog() {
+		if (log == null)
+			return;
+		try {
+			log.close();
+		} catch (IOException e) {
+			// nothing to be done, the log is damaged and gets compacted on the next start
+		}
+		log = null;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+}
@@ -0,0 +1,209 @@
+package net.syncarus.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import net.syncarus.model.CancelationException;
+import net.syncarus.model.DiffNode;
+import net.syncarus.model.DiffStatus;
+import net.syncarus.model.SyncException;
+
+/**
+ * Executes the file operations of a {@link SyncTask} on a bounded pool of
+ * worker threads.<br>
+ * Every device has its own I/O lane limiting the number of operations which
+ * access it at the same time. When both locations A and B reside on the same
+ * file store, they share a single lane.<br>
+ * An operation isn't started before the operation of the nearest processed
+ * ancestor of its nodes has completed, so parent directories always exist before
+ * their children are touched. All modifications of the node tree are done by
+ * the calling thread.
+ */
+public class ConcurrentSyncExecutor {
+	private static final ThreadFactory WORKER_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Syncarus sync worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	/**
+	 * The file operations of a single work unit.
+	 */
+	private class Operation implements Callable<Operation> {
+		final SyncTask.WorkUnit unit;
+		final List<Operation> dependents = new ArrayList<Operation>();
+
+		Operation(SyncTask.WorkUnit unit) {
+			this.unit = unit;
+		}
+
+		@Override
+		public Operation call() throws IOException, CancelationException {
+			boolean usesA = false;
+			boolean usesB = false;
+			for (DiffNode node : unit.nodes) {
+				usesA |= node.getStatus() != DiffStatus.REMOVE_FROM_B;
+				usesB |= node.getStatus() != DiffStatus.REMOVE_FROM_A;
+			}
+
+			// lanes are always acquired in the order A, B to avoid deadlocks
+			if (usesA)
+				acquire(laneA);
+			try {
+				if (usesB && (!usesA || laneB != laneA))
+					acquire(laneB);
+				try {
+					task.process(unit);
+				} finally {
+					if (usesB && (!usesA || laneB != laneA))
+						laneB.release();
+				}
+			} finally {
+				if (usesA)
+					laneA.release();
+			}
+			return this;
+		}
+	}
+
+	private final SyncTask task;
+	private final int threads;
+	private final Semaphore laneA;
+	private final Semaphore laneB;
+
+	/**
+	 * @param task
+	 *            the task executing the file operations
+	 * @param threads
+	 *            the maximum number of concurrently executed operations
+	 * @param threadsPerDevice
+	 *            the maximum number of concurrent operations accessing the
+	 *            same device
+	 */
+	public ConcurrentSyncExecutor(SyncTask task, int threads, int threadsPerDevice) {
+		this.task = task;
+		this.threads = threads;
+
+		DiffNode root = task.getRootNode();
+		FileStore storeA = getFileStore(root.getAbsoluteFileA());
+		FileStore storeB = getFileStore(root.getAbsoluteFileB());
+		laneA = new Semaphore(threadsPerDevice, true);
+		laneB = storeA != null && storeA.equals(storeB) ? laneA : new Semaphore(threadsPerDevice, true);
+	}
+
+	/**
+	 * @return the file store of <code>file</code> or <code>null</code> when it
+	 *         can't be determined, which results in a separate lane
+	 */
+	private static FileStore getFileStore(File file) {
+		try {
+			return Files.getFileStore(file.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void acquire(Semaphore lane) throws CancelationException {
+		try {
+			lane.acquire();
+		} catch (InterruptedException e) {
+			throw new CancelationException();
+		}
+	}
+
+	/**
+	 * Processes all work units and removes their processed nodes from the tree
+	 * afterwards. When an operation fails, no further operations are started,
+	 * running operations are cancelled and the first failure is rethrown once
+	 * all of them have terminated.
+	 */
+	public void execute(List<SyncTask.WorkUnit> units) throws IOException, CancelationException {
+		Map<DiffNode, Operation> operations = new IdentityHashMap<DiffNode, Operation>();
+		List<Operation> all = new ArrayList<Operation>();
+		for (SyncTask.WorkUnit unit : units) {
+			Operation operation = new Operation(unit);
+			all.add(operation);
+			for (DiffNode node : unit.nodes)
+				operations.put(node, operation);
+		}
+
+		// all nodes of a work unit share the same parent
+		List<Operation> independent = new ArrayList<Operation>();
+		for (Operation operation : all) {
+			Operation ancestor = null;
+			DiffNode node = operation.unit.nodes.get(0).getParent();
+			for (; node != null && ancestor == null; node = node.getParent())
+				ancestor = operations.get(node);
+
+			if (ancestor == null)
+				independent.add(operation);
+			else
+				ancestor.dependents.add(operation);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, WORKER_FACTORY);
+		CompletionService<Operation> completionService = new ExecutorCompletionService<Operation>(pool);
+		Throwable failure = null;
+		int pending = 0;
+		try {
+			for (Operation operation : independent) {
+				completionService.submit(operation);
+				pending++;
+			}
+
+			while (pending > 0) {
+				Future<Operation> future = completionService.take();
+				pending--;
+				try {
+					Operation operation = future.get();
+					if (failure != null)
+						continue;
+					for (Operation dependent : operation.dependents) {
+						completionService.submit(dependent);
+						pending++;
+					}
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+						task.abort();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			task.abort();
+			throw new CancelationException();
+		} finally {
+			pool.shutdownNow();
+			// units which haven't been started yet have no completed nodes
+			for (Operation operation : all)
+				operation.unit.removeCompleted();
+		}
+
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof CancelationException)
+			throw (CancelationException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw new SyncException(SyncException.THREAD_EXCEPTION, "File operation failed: " + failure);
+	}
+}
@@ -0,0 +1,308 @@
+package net.syncarus.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compares the content of two files. When a {@link ChecksumCache} is given and
+ * it contains up-to-date MD5 checksums of both files, the checksums are
+ * compared without reading any file content.<br>
+ * Otherwise, both files are read concurrently in large chunks at the same
+ * offsets: the calling thread reads file A while a helper thread reads file B,
+ * so two files on different disks are read at full speed at the same time.
+ * The comparison stops at the first mismatching chunk. When both files turn
+ * out to be equal, the checksum calculated on the way is stored in the cache.<br>
+ * Files exceeding a size threshold are not copied into buffers at all but
+ * memory-mapped window by window. Java can't unmap a window explicitly, so
+ * windows which are not used anymore stay mapped until they are garbage
+ * collected. To keep the address space in use predictable, only
+ * {@link #MAX_MAPPING_THREADS} threads compare mapped files at a time, each
+ * with one window of each file in use; the other threads read their files in
+ * chunks instead.<br>
+ * The content is only digested when there is a cache to store the checksum
+ * in.
+ */
+public class ContentComparator {
+	private static final String DIGEST_ALGORITHM = "MD5";
+
+	/** size of the chunks read at once; chunks start at multiples of this size */
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	/** smaller files are read by the calling thread only */
+	private static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+	/** maximum number of threads comparing memory-mapped files at the same time */
+	private static final int MAX_MAPPING_THREADS = 2;
+	private static final Semaphore MAPPING_PERMITS = new Semaphore(MAX_MAPPING_THREADS);
+
+	private static final ExecutorService READER = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Syncarus content reader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** both chunk buffers of a comparing thread */
+	private static final ThreadLocal<ByteBuffer[]> BUFFERS = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[] { ByteBuffer.allocateDirect(CHUNK_SIZE), ByteBuffer.allocateDirect(CHUNK_SIZE) };
+		}
+	};
+
+	private static class ChunkReader implements Callable<Integer> {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final long position;
+
+		public ChunkReader(FileChannel channel, ByteBuffer buffer, long position) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		@Override
+		public Integer call() throws IOException {
+			return readChunk(channel, buffer, position);
+		}
+	}
+
+	private static class WindowLoader implements Callable<Integer> {
+		private final MappedByteBuffer window;
+
+		public WindowLoader(MappedByteBuffer window) {
+			this.window = window;
+		}
+
+		@Override
+		public Integer call() {
+			window.load();
+			return window.limit();
+		}
+	}
+
+	private final ChecksumCache cache;
+	private final long mappingThreshold;
+	private final int mappingWindowSize;
+	// bytes of both files read so far
+	private final Metrics.StripedCounter bytesRead = new Metrics.StripedCounter();
+
+	/**
+	 * @param cache
+	 *            the checksum cache or <code>null</code> to compare the
+	 *            content directly
+	 */
+	public ContentComparator(ChecksumCache cache) {
+		this(cache, 0, 0);
+	}
+
+	/**
+	 * @param cache
+	 *            the checksum cache or <code>null</code> to compare the
+	 *            content directly
+	 * @param mappingThreshold
+	 *            files of at least this size in bytes are compared by
+	 *            memory-mapping them, <code>0</code> disables memory-mapping
+	 * @param mappingWindowSize
+	 *            the size of the mapped windows in bytes
+	 */
+	public ContentComparator(ChecksumCache cache, long mappingThreshold, int mappingWindowSize) {
+		this.cache = cache;
+		this.mappingThreshold = mappingThreshold;
+		this.mappingWindowSize = mappingWindowSize;
+	}
+
+	/**
+	 * @return <code>true</code> when both files have identical content
+	 */
+	public boolean contentEquals(FileEntry entryA, FileEntry entryB) throws IOException {
+		if (entryA.getSize() != entryB.getSize())
+			return false;
+		// without a cache, the checksum wouldn't be used
+		if (cache == null)
+			return compareContent(entryA, entryB, null);
+
+		byte[] digestA = cache.getDigest(entryA);
+		byte[] digestB = cache.getDigest(entryB);
+		if (digestA != null && digestB != null)
+			return Arrays.equals(digestA, digestB);
+
+		// equal content means equal checksums, so it's sufficient to digest one file
+		MessageDigest messageDigest = createMessageDigest();
+		if (!compareContent(entryA, entryB, messageDigest))
+			return false;
+
+		byte[] digest = messageDigest.digest();
+		cache.putDigest(entryA, digest);
+		cache.putDigest(entryB, digest);
+		return true;
+	}
+
+	/**
+	 * @return the number of bytes read from both files by all comparisons of
+	 *         this comparator
+	 */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * Compares both files either chunk by chunk or by mapping them into
+	 * memory, which is only done while a mapping permit is available.
+	 *
+	 * @param messageDigest
+	 *            is updated with the content of file A as long as both files
+	 *            are equal, <code>null</code> when no checksum is needed
+	 */
+	private boolean compareContent(FileEntry entryA, FileEntry entryB, MessageDigest messageDigest)
+			throws IOException {
+		FileChannel channelA = new FileInputStream(entryA.getFile()).getChannel();
+		try {
+			FileChannel channelB = new FileInputStream(entryB.getFile()).getChannel();
+			try {
+				if (mappingThreshold > 0 && entryA.getSize() >= mappingThreshold && MAPPING_PERMITS.tryAcquire()) {
+					try {
+						return compareMapped(channelA, channelB, messageDigest);
+					} finally {
+						MAPPING_PERMITS.release();
+					}
+				}
+				return compareChunks(channelA, channelB, entryA.getSize() > PARALLEL_THRESHOLD, messageDigest);
+			} finally {
+				channelB.close();
+			}
+		} finally {
+			channelA.close();
+		}
+	}
+
+	private boolean compareChunks(FileChannel channelA, FileChannel channelB, boolean parallel,
+			MessageDigest messageDigest) throws IOException {
+		ByteBuffer[] buffers = BUFFERS.get();
+		ByteBuffer bufferA = buffers[0];
+		ByteBuffer bufferB = buffers[1];
+
+		for (long position = 0;; position += CHUNK_SIZE) {
+			int lenA;
+			int lenB;
+			if (parallel) {
+				Future<Integer> readB = READER.submit(new ChunkReader(channelB, bufferB, position));
+				try {
+					lenA = readChunk(channelA, bufferA, position);
+				} finally {
+					// the buffer of B must not be in use anymore when this method is left
+					lenB = await(readB);
+				}
+			} else {
+				lenA = readChunk(channelA, bufferA, position);
+				lenB = readChunk(channelB, bufferB, position);
+			}
+
+			bytesRead.add(lenA + lenB);
+			if (lenA != lenB || !bufferA.equals(bufferB))
+				return false;
+			if (lenA == 0)
+				return true;
+			if (messageDigest != null)
+				messageDigest.update(bufferA);
+		}
+	}
+
+	/**
+	 * Maps one window of each file after the other into memory. The pages of
+	 * window B are loaded by a helper thread while the calling thread loads
+	 * window A, then both windows are compared in bulk. Windows are not
+	 * referenced anymore after the next ones have been mapped, but their
+	 * address space is only released once they are garbage collected. When
+	 * mapping fails for lack of address space, the JDK collects garbage and
+	 * retries.
+	 */
+	private boolean compareMapped(FileChannel channelA, FileChannel channelB, MessageDigest messageDigest)
+			throws IOException {
+		long size = channelA.size();
+		if (size != channelB.size())
+			return false;
+
+		for (long position = 0; position < size; position += mappingWindowSize) {
+			long windowSize = Math.min(mappingWindowSize, size - position);
+			MappedByteBuffer windowA = channelA.map(MapMode.READ_ONLY, position, windowSize);
+			MappedByteBuffer windowB = channelB.map(MapMode.READ_ONLY, position, windowSize);
+
+			Future<Integer> loadB = READER.submit(new WindowLoader(windowB));
+			try {
+				windowA.load();
+			} finally {
+				await(loadB);
+			}
+
+			bytesRead.add(2 * windowSize);
+			if (!windowA.equals(windowB))
+				return false;
+			if (messageDigest != null)
+				messageDigest.update(windowA);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the chunk starting at <code>position</code> into
+	 * <code>buffer</code>, which is flipped afterwards.
+	 *
+	 * @return the number of bytes read, less than the chunk size only at the
+	 *         end of the file
+	 */
+	private static int readChunk(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				break;
+		}
+		buffer.flip();
+		return buffer.limit();
+	}
+
+	private static int await(Future<Integer> future) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	static MessageDigest createMessageDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support MD5
+			throw new IllegalStateException(e);
+		}
+	}
+}
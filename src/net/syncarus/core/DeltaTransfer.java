@@ -0,0 +1,341 @@
+package net.syncarus.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import net.syncarus.model.CancelationException;
+import net.syncarus.model.SyncException;
+
+/**
+ * Updates an existing file in place so that it equals a newer version, while
+ * only writing the parts which have changed. This follows the rsync
+ * algorithm:
+ * <ol>
+ * <li>The old file is split into blocks, each of which gets a weak rolling
+ * checksum and a strong MD5 checksum.</li>
+ * <li>A window of one block is moved byte by byte over the new file. Its
+ * rolling checksum is updated in constant time per byte and looked up among
+ * the blocks; the strong checksum is only calculated for candidates.</li>
+ * <li>Matching blocks which are already at the right offset are left alone,
+ * other matching blocks are copied within the file and everything else is
+ * written from the new file.</li>
+ * </ol>
+ * As the old file is overwritten while it is read, a block may only be used
+ * when it starts at or behind the current write position. Matches which
+ * would require moving data backwards are written from the new file instead.
+ * <br>
+ * When the update is interrupted, the file is left partially updated with its
+ * old modification date, so the next comparison still reports it as older.
+ */
+public class DeltaTransfer {
+	private static final String DIGEST_ALGORITHM = "MD5";
+
+	private static final int MIN_BLOCK_SIZE = 4 * 1024;
+	private static final int MAX_BLOCK_SIZE = 128 * 1024;
+	/** larger files get larger blocks, which bounds the size of the signatures */
+	private static final int MAX_BLOCKS = 1 << 20;
+
+	/** the new file is read in chunks of this size, which is also the unit of the progress */
+	private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private final int blockSize;
+	private final int numOfBlocks;
+	private final MessageDigest messageDigest;
+
+	// signature of each block of the old file
+	private final int[] weakSums;
+	private final long[] strongSums;
+
+	// hash table from weak checksums to blocks, identical blocks are only stored once
+	private final int[] hashHeads;
+	private final int[] hashBlocks;
+	private final int[] hashNext;
+	private int hashSize = 0;
+
+	private final RandomAccessFile target;
+	private final SyncTask runnable;
+	private final byte[] blockBuffer;
+	private long writePosition = 0;
+	private long unchangedBytes = 0;
+
+	private DeltaTransfer(RandomAccessFile target, SyncTask runnable) throws IOException {
+		this.target = target;
+		this.runnable = runnable;
+		long size = target.length();
+		blockSize = getBlockSize(size);
+		numOfBlocks = (int) (size / blockSize);
+		blockBuffer = new byte[blockSize];
+		try {
+			messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION, "Checksum algorithm "
+					+ DIGEST_ALGORITHM + " isn't available");
+		}
+
+		weakSums = new int[numOfBlocks];
+		strongSums = new long[2 * numOfBlocks];
+		int tableSize = Integer.highestOneBit(Math.max(1, numOfBlocks)) * 2;
+		hashHeads = new int[tableSize];
+		Arrays.fill(hashHeads, -1);
+		hashBlocks = new int[numOfBlocks];
+		hashNext = new int[numOfBlocks];
+	}
+
+	/**
+	 * Uses blocks of about the square root of the file size, rounded to a power
+	 * of two so that unchanged blocks are aligned with the pages of the file
+	 * system.
+	 */
+	static int getBlockSize(long fileSize) {
+		int blockSize = Integer.highestOneBit((int) Math.min(MAX_BLOCK_SIZE, Math.sqrt(fileSize)));
+		blockSize = Math.max(MIN_BLOCK_SIZE, blockSize);
+		while (fileSize / blockSize > MAX_BLOCKS)
+			blockSize *= 2;
+		return blockSize;
+	}
+
+	/**
+	 * Updates <code>targetFile</code> to the content of
+	 * <code>sourceFile</code> and sets its modification date.
+	 *
+	 * @param runnable
+	 *            is informed about the progress in bytes of the source file
+	 *            and about the updated file, may be <code>null</code>
+	 * @return the number of bytes which have been left unchanged
+	 */
+	public static long update(File sourceFile, File targetFile, SyncTask runnable) throws IOException,
+			CancelationException {
+		long unchangedBytes;
+		RandomAccessFile target = new RandomAccessFile(targetFile, "rw");
+		try {
+			FileChannel source = new FileInputStream(sourceFile).getChannel();
+			try {
+				DeltaTransfer delta = new DeltaTransfer(target, runnable);
+				delta.readSignatures();
+				delta.patch(source);
+				unchangedBytes = delta.unchangedBytes;
+			} finally {
+				source.close();
+			}
+		} finally {
+			target.close();
+		}
+
+		targetFile.setLastModified(sourceFile.lastModified());
+		if (runnable != null)
+			runnable.fileCopied(sourceFile, targetFile);
+		return unchangedBytes;
+	}
+
+	private void readSignatures() throws IOException {
+		byte[] buffer = new byte[Math.max(blockSize, CHUNK_SIZE / blockSize * blockSize)];
+		target.seek(0);
+		int block = 0;
+		while (block < numOfBlocks) {
+			int length = (int) Math.min(buffer.length, (long) (numOfBlocks - block) * blockSize);
+			target.readFully(buffer, 0, length);
+			for (int offset = 0; offset < length; offset += blockSize, block++) {
+				weakSums[block] = weakSum(buffer, offset);
+				digest(buffer, offset, strongSums, 2 * block);
+				addToHashTable(block);
+			}
+		}
+	}
+
+	/**
+	 * Adds the block to the hash table. When an identical block has been added
+	 * before, it is replaced, as blocks at higher offsets remain available
+	 * longer.
+	 */
+	private void addToHashTable(int block) {
+		int slot = weakSums[block] & (hashHeads.length - 1);
+		for (int entry = hashHeads[slot]; entry >= 0; entry = hashNext[entry]) {
+			int other = hashBlocks[entry];
+			if (weakSums[other] == weakSums[block] && strongSums[2 * other] == strongSums[2 * block]
+					&& strongSums[2 * other + 1] == strongSums[2 * block + 1]) {
+				hashBlocks[entry] = block;
+				return;
+			}
+		}
+		hashBlocks[hashSize] = block;
+		hashNext[hashSize] = hashHeads[slot];
+		hashHeads[slot] = hashSize++;
+	}
+
+	/**
+	 * Moves the window over the new file and writes the result to the old
+	 * file. Bytes between the last match and the window are held in the
+	 * buffer until they are written as literal data.
+	 */
+	private void patch(FileChannel source) throws IOException, CancelationException {
+		byte[] buffer = new byte[Math.max(2 * blockSize, CHUNK_SIZE)];
+		int literalStart = 0;
+		int window = 0;
+		int end = 0;
+		boolean eof = false;
+		// rolling checksum of the window, only valid while rolling
+		boolean rolling = false;
+		int a = 0;
+		int b = 0;
+		long[] strongSum = new long[2];
+
+		while (true) {
+			if (end - window < blockSize) {
+				if (eof)
+					break;
+				// make room for the next chunk
+				writeLiteral(buffer, literalStart, window - literalStart);
+				System.arraycopy(buffer, window, buffer, 0, end - window);
+				end -= window;
+				literalStart = window = 0;
+				int read = read(source, buffer, end);
+				eof = read < 0;
+				end += Math.max(0, read);
+				rolling = false;
+				continue;
+			}
+
+			if (!rolling) {
+				a = 0;
+				b = 0;
+				for (int i = 0; i < blockSize; i++) {
+					int value = buffer[window + i] & 0xff;
+					a += value;
+					b += (blockSize - i) * value;
+				}
+				rolling = true;
+			}
+
+			int weakSum = (a & 0xffff) | (b << 16);
+			int block = findBlock(weakSum, buffer, window, writePosition + window - literalStart, strongSum);
+			if (block >= 0) {
+				writeLiteral(buffer, literalStart, window - literalStart);
+				writeBlock(block);
+				window += blockSize;
+				literalStart = window;
+				rolling = false;
+			} else if (window + blockSize < end) {
+				int out = buffer[window] & 0xff;
+				int in = buffer[window + blockSize] & 0xff;
+				a += in - out;
+				b += a - blockSize * out;
+				window++;
+			} else {
+				window++;
+				rolling = false;
+			}
+		}
+
+		writeLiteral(buffer, literalStart, end - literalStart);
+		target.setLength(writePosition);
+	}
+
+	/**
+	 * @param position
+	 *            the position in the new file where the window would be
+	 *            written
+	 * @return a block of the old file which equals the window and isn't
+	 *         overwritten yet or <code>-1</code>
+	 */
+	private int findBlock(int weakSum, byte[] buffer, int window, long position, long[] strongSum) {
+		boolean digested = false;
+		// prefer the block at the same position, which doesn't need to be written at all
+		if (position % blockSize == 0 && position / blockSize < numOfBlocks) {
+			int block = (int) (position / blockSize);
+			if (weakSums[block] == weakSum) {
+				digest(buffer, window, strongSum, 0);
+				digested = true;
+				if (strongSums[2 * block] == strongSum[0] && strongSums[2 * block + 1] == strongSum[1])
+					return block;
+			}
+		}
+
+		for (int entry = hashHeads[weakSum & (hashHeads.length - 1)]; entry >= 0; entry = hashNext[entry]) {
+			int block = hashBlocks[entry];
+			if (weakSums[block] != weakSum || (long) block * blockSize < position)
+				continue;
+			if (!digested) {
+				digest(buffer, window, strongSum, 0);
+				digested = true;
+			}
+			if (strongSums[2 * block] == strongSum[0] && strongSums[2 * block + 1] == strongSum[1])
+				return block;
+		}
+		return -1;
+	}
+
+	private void writeLiteral(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return;
+		target.seek(writePosition);
+		target.write(buffer, offset, length);
+		writePosition += length;
+	}
+
+	/**
+	 * Writes a block of the old file at the current position, unless it is
+	 * already there.
+	 */
+	private void writeBlock(int block) throws IOException {
+		long blockPosition = (long) block * blockSize;
+		if (blockPosition == writePosition) {
+			unchangedBytes += blockSize;
+		} else {
+			target.seek(blockPosition);
+			target.readFully(blockBuffer);
+			target.seek(writePosition);
+			target.write(blockBuffer);
+		}
+		writePosition += blockSize;
+	}
+
+	/**
+	 * Reads the next chunk of the new file and reports the progress.
+	 *
+	 * @return the number of bytes read or <code>-1</code> at the end of the
+	 *         file
+	 */
+	private int read(FileChannel source, byte[] buffer, int offset) throws IOException, CancelationException {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, buffer.length - offset);
+		int read = 0;
+		while (byteBuffer.hasRemaining()) {
+			int length = source.read(byteBuffer);
+			if (length < 0)
+				break;
+			read += length;
+		}
+		if (read == 0)
+			return -1;
+		if (runnable != null)
+			runnable.reportProgress(read);
+		return read;
+	}
+
+	/**
+	 * @return the rsync checksum of the block at <code>offset</code>
+	 */
+	private int weakSum(byte[] buffer, int offset) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < blockSize; i++) {
+			int value = buffer[offset + i] & 0xff;
+			a += value;
+			b += (blockSize - i) * value;
+		}
+		return (a & 0xffff) | (b << 16);
+	}
+
+	private void digest(byte[] buffer, int offset, long[] sums, int index) {
+		messageDigest.update(buffer, offset, blockSize);
+		ByteBuffer digest = ByteBuffer.wrap(messageDigest.digest());
+		sums[index] = digest.getLong(0);
+		sums[index + 1] = digest.getLong(8);
+	}
+}
@@ -1,20 +1,23 @@
 package net.syncarus.core;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
-import net.syncarus.gui.SyncView;
 import net.syncarus.model.CancelationException;
 import net.syncarus.model.DiffNode;
 import net.syncarus.model.DiffStatus;
+import net.syncarus.rcp.SyncarusPlugin;
 
-import org.apache.commons.io.FileUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.ui.PlatformUI;
 
 /**
  * This job builds a Difference Tree showing all the detected differences. <br>
@@ -24,29 +27,70 @@ public class DiffTask extends SyncarusTask {
 
 	private IProgressMonitor monitor = null;
 
-	private class GuiRefresher implements Runnable {
-		private IOException ioException = null;
+	/**
+	 * Compares the content of a single directory pair. Sub-directories which
+	 * exist in both locations are handled by forked sub-tasks; a task only
+	 * appends children to its own node, and the parent task inspects the node
+	 * of a sub-task only after it has been joined.
+	 */
+	private class CompareDirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = -2392496718440162735L;
+
+		private final DiffNode localNode;
+		private final GlobFilter.State globState;
+		private final List<CompareDirectoryTask> subTasks = new ArrayList<CompareDirectoryTask>();
+		// file pairs of this directory known to be equal from the last run and found to be equal in this run
+		private final SnapshotIndex.Directory knownFiles;
+		private final SnapshotIndex.Directory equalFiles = new SnapshotIndex.Directory();
 
-		public void setException(IOException e) {
-			ioException = e;
+		public CompareDirectoryTask(DiffNode localNode, GlobFilter.State globState) {
+			this.localNode = localNode;
+			this.globState = globState;
+			this.knownFiles = previousSnapshot.getDirectory(localNode.getRelativePath());
 		}
 
 		@Override
-		public void run() {
-			getSyncView().update();
-			if (ioException != null) {
-				MessageDialog.openWarning(null, "Differentiation stopped",
-						"Errors occured: " + ioException.getMessage());
-			} else if (!getRootNode().hasChildren() && !monitor.isCanceled())
-				MessageDialog.openInformation(null, "Differentiation finished", "No changes have been found!");
+		protected void compute() {
+			try {
+				createNodeTree(this);
+			} catch (CancelationException e) {
+				throw new WorkerException(e);
+			} catch (IOException e) {
+				throw new WorkerException(e);
+			}
+		}
+	}
+
+	/**
+	 * transports checked exceptions out of the fork-join pool
+	 */
+	private static class WorkerException extends RuntimeException {
+		private static final long serialVersionUID = 6318540371405522190L;
+
+		public WorkerException(Throwable cause) {
+			super(cause);
 		}
 	}
 
-	private long totalFilesToProcess;
-	private long filesProcessedSoFar;
+	// directories found so far and directories whose listing has been compared
+	private long directoriesDiscovered = 1;
+	private long directoriesProcessed = 0;
+
+	private SnapshotIndex previousSnapshot;
+	private SnapshotIndex currentSnapshot;
+	private ChecksumCache checksumCache;
+	private ContentComparator contentComparator;
+	// excluded names are skipped while listing the directories
+	private NameFilter nameFilter;
+	private GlobFilter globFilter;
+	// temporary files of copy operations in both locations, removed by the next synchronisation
+	private final Queue<FileEntry> tempFiles = new ConcurrentLinkedQueue<FileEntry>();
 
-	public DiffTask(SyncView syncView) {
-		super(syncView);
+	// set when one worker failed, so that all other workers stop as well
+	private volatile boolean aborted = false;
+
+	public DiffTask(SyncarusPlugin plugin, Observer observer) {
+		super(plugin, observer, "comparison");
 	}
 
 	/**
@@ -64,51 +108,150 @@ public class DiffTask extends SyncarusTask {
 		try {
 			// hold the monitor in a class-variable to be accessible in the
 			// recursion
-			this.monitor = monitor;
+			this.monitor = watchCancellation(monitor);
 			monitor.beginTask("Differentiaton", WORK_MAX);
 
-			String taskDescription = "Analysing directory structure of A";
+			String taskDescription = "Comparing directory content of A and B";
 			monitor.subTask(taskDescription);
 			getProtocol().add(taskDescription);
-			totalFilesToProcess = FileOperation.totalNumOfFiles(getRootNode().getAbsoluteFileA());
-			
-			taskDescription = "Analysing directory structure of B";
-			monitor.subTask(taskDescription);
-			getProtocol().add(taskDescription);
-			totalFilesToProcess += FileOperation.totalNumOfFiles(getRootNode().getAbsoluteFileB());
-
-			taskDescription = "Comparing directory content of A and B";
-			monitor.subTask(taskDescription);
-			getProtocol().add(taskDescription);
-
-			GuiRefresher guiRefresher = new GuiRefresher();
 
 			try {
 				getPlugin().resetRootNode();
-				createNodeTree(getRootNode());
+				nameFilter = getSettings().getNameFilter();
+				globFilter = getSettings().getGlobFilter();
+				metrics.beginPhase(Metrics.Phase.LOAD_SNAPSHOT);
+				loadSnapshot();
+				loadChecksumCache();
+				metrics.beginPhase(Metrics.Phase.COMPARE);
+				compare(getRootNode());
+				getPlugin().setTempFiles(new ArrayList<FileEntry>(tempFiles));
+				metrics.beginPhase(Metrics.Phase.SAVE_SNAPSHOT);
+				saveSnapshot();
+				if (getRootNode().hasChildren())
+					setOutcome(Outcome.COMPLETED, "Differentiation finished", null, null);
+				else
+					setOutcome(Outcome.COMPLETED, "Differentiation finished", "No changes have been found!", null);
 			} catch (CancelationException e) {
 				// Differentiation was aborted - remove loose clean nodes - it
 				// is very likely that such nodes exist after an exception
 				getRootNode().clean();
+				setOutcome(Outcome.CANCELED, "Differentiation cancelled", null, null);
 			} catch (IOException e) {
-				guiRefresher.setException(e);
+				setOutcome(Outcome.FAILED, "Differentiation stopped", "Errors occured: " + e.getMessage(), e);
 				getRootNode().clean();
+			} finally {
+				metrics.beginPhase(Metrics.Phase.FLUSH_CHECKSUMS);
+				flushChecksumCache();
 			}
 			
-			taskDescription = "Filtering results";
-			monitor.subTask(taskDescription);
-			getProtocol().add(taskDescription);
-			filter(getRootNode());
+			// viewers rely on the children being sorted
+			getRootNode().sortChildren();
+			getRootNode().updateCounts();
 			
 			monitor.done();
-
+		} catch (RuntimeException e) {
+			setOutcome(Outcome.FAILED, "Exception occured during differenation process.", e.getMessage(), e);
+		} finally {
 			// report result
-			PlatformUI.getWorkbench().getDisplay().syncExec(guiRefresher);
+			notifyObserver();
+		}
+	}
+
+	/**
+	 * Loads the {@link SnapshotIndex} of the last run, if enabled, and prepares
+	 * a new index which collects all equal files found during this run.
+	 */
+	private void loadSnapshot() {
+		String rootPathA = getRootNode().getAbsolutePathA();
+		String rootPathB = getRootNode().getAbsolutePathB();
+		if (getSettings().shouldUseSnapshotIndex())
+			previousSnapshot = SnapshotIndex.load(getPlugin().getSnapshotIndexFile(), rootPathA, rootPathB);
+		else
+			previousSnapshot = new SnapshotIndex(rootPathA, rootPathB);
+		currentSnapshot = new SnapshotIndex(rootPathA, rootPathB);
+	}
+
+	/**
+	 * Replaces the stored {@link SnapshotIndex} after a complete comparison.
+	 * Failing to do so is not critical, it only slows down the next
+	 * comparison.
+	 */
+	private void saveSnapshot() {
+		if (!getSettings().shouldUseSnapshotIndex())
+			return;
+		try {
+			currentSnapshot.save(getPlugin().getSnapshotIndexFile());
+		} catch (IOException e) {
+			getProtocol().add("Couldn't save the snapshot index: " + e.getMessage());
+		}
+	}
+
+	private void loadChecksumCache() {
+		checksumCache = getSettings().shouldUseChecksumCache() ? getPlugin().getChecksumCache() : null;
+		if (checksumCache != null)
+			checksumCache.resetStatistics();
+		contentComparator = new ContentComparator(checksumCache, getSettings().getMappingThreshold(),
+				getSettings().getMappingWindowSize());
+	}
+
+	/**
+	 * Writes new checksums to disk and reports the cache efficiency.
+	 */
+	private void flushChecksumCache() {
+		if (contentComparator != null)
+			metrics.add(Metrics.Counter.BYTES_COMPARED, contentComparator.getBytesRead());
+		if (checksumCache == null)
+			return;
+		metrics.add(Metrics.Counter.CHECKSUM_CACHE_HITS, checksumCache.getHits());
+		metrics.add(Metrics.Counter.CHECKSUM_CACHE_MISSES, checksumCache.getMisses());
+		checksumCache.flush();
+		if (checksumCache.getHits() + checksumCache.getMisses() > 0)
+			getProtocol().add("Checksum cache: " + checksumCache.getHits() + " hits, " + checksumCache.getMisses()
+					+ " misses");
+	}
+
+	/**
+	 * Runs the comparison of <code>rootNode</code> on a fork-join pool using
+	 * the number of threads defined in the {@link Settings}. The resulting
+	 * tree is identical to the one of a single-threaded comparison.
+	 * 
+	 * @param rootNode
+	 */
+	private void compare(DiffNode rootNode) throws CancelationException, IOException {
+		ForkJoinPool pool = new ForkJoinPool(getSettings().getComparisonThreads());
+		try {
+			pool.invoke(new CompareDirectoryTask(rootNode, globFilter.getRootState()));
 		} catch (RuntimeException e) {
-			getPlugin().logError("Exception occured during differenation process.", e);
+			// make sure no worker modifies the tree anymore before it gets cleaned
+			aborted = true;
+			pool.shutdownNow();
+			awaitTermination(pool);
+			rethrowCause(e);
 		} finally {
-			getSyncView().releaseLock();
+			pool.shutdown();
+		}
+	}
+
+	private void awaitTermination(ForkJoinPool pool) {
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The fork-join framework may wrap exceptions thrown by a worker once more,
+	 * so the whole cause chain is searched for the original exception.
+	 */
+	private void rethrowCause(RuntimeException e) throws CancelationException, IOException {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof CancelationException)
+				throw (CancelationException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
 		}
+		throw e;
 	}
 
 	/**
@@ -118,133 +261,205 @@ public class DiffTask extends SyncarusTask {
 	 * file-differences or folders which will be copied, removed, etc. Every
 	 * list-entry and node is identified by its relative path.<br>
 	 * The mechanism generates temporary nodes with status CLEAN and removes
-	 * them again after the recursion when there were no differences i.e. when
-	 * no children were appended.
+	 * them again after the sub-tasks have been joined when there were no
+	 * differences i.e. when no children were appended.
 	 * 
-	 * @param localNode
+	 * @param task
+	 *            the task comparing the directory of its node
 	 */
-	private void createNodeTree(DiffNode localNode) throws CancelationException, IOException {
-		Set<String> pathBSet = new HashSet<String>();
+	private void createNodeTree(CompareDirectoryTask task) throws CancelationException, IOException {
+		DiffNode localNode = task.localNode;
+		List<FileEntry> entriesA = DirectoryScanner.list(localNode.getAbsoluteFileA(), nameFilter, task.globState,
+				tempFiles);
+		List<FileEntry> entriesB = DirectoryScanner.list(localNode.getAbsoluteFileB(), nameFilter, task.globState,
+				tempFiles);
+		metrics.add(Metrics.Counter.DIRECTORIES_SCANNED, 2);
+		metrics.add(Metrics.Counter.ENTRIES_LISTED, entriesA.size() + entriesB.size());
+		Collections.sort(entriesA, FileEntry.NAME_ORDER);
+		Collections.sort(entriesB, FileEntry.NAME_ORDER);
 
-		// copy all children of localRootRight to a HashMap
-		for (File childB : localNode.listFilesB()) {
-			String relativePathChild = localNode.getRelativePath() + File.separator + childB.getName();
-			pathBSet.add(relativePathChild);
-		}
-
-		for (File childA : localNode.listFilesA()) {
-			String relativePathChild = localNode.getRelativePath() + File.separator + childA.getName();
+		// merge both sorted listings, equal names are met at the same time
+		int indexA = 0;
+		int indexB = 0;
+		while (indexA < entriesA.size() || indexB < entriesB.size()) {
+			int order;
+			if (indexA == entriesA.size())
+				order = 1;
+			else if (indexB == entriesB.size())
+				order = -1;
+			else
+				order = FileEntry.NAME_ORDER.compare(entriesA.get(indexA), entriesB.get(indexB));
 
-			if (!pathBSet.remove(relativePathChild)) {
+			if (order < 0) {
 				// only location A contains this file/folder
-				localNode.createChildNode(childA, DiffStatus.COPY_TO_B);
-				worked(FileOperation.totalNumOfFiles(childA));
+				FileEntry entryA = entriesA.get(indexA++);
+				markSmallFile(localNode.createChildNode(entryA.getName(), entryA.isDirectory(), DiffStatus.COPY_TO_B),
+						entryA);
+				metrics.count(DiffStatus.COPY_TO_B);
+				checkCanceled();
+			} else if (order > 0) {
+				// only location B contains this file/folder
+				FileEntry entryB = entriesB.get(indexB++);
+				markSmallFile(localNode.createChildNode(entryB.getName(), entryB.isDirectory(),
+						DiffStatus.REMOVE_FROM_B), entryB);
+				metrics.count(DiffStatus.REMOVE_FROM_B);
+				checkCanceled();
 			} else {
 				// both locations contain that file/folder
-				File childB = new File(localNode.getAbsoluteFileB(), childA.getName());
-				compareChildren(localNode, childA, childB);
+				compareChildren(task, entriesA.get(indexA++), entriesB.get(indexB++));
 			}
 		}
 
-		for (String relativePathChild : pathBSet) {
-			// only location B contains this file/folder
-			File childB = new File(localNode.getRootPathB(), relativePathChild);
-			localNode.createChildNode(childB, DiffStatus.REMOVE_FROM_B);
-			worked(FileOperation.totalNumOfFiles(childB));
+		currentSnapshot.putDirectory(localNode.getRelativePath(), task.equalFiles);
+		worked(task.subTasks.size());
+
+		ForkJoinTask.invokeAll(task.subTasks);
+		for (CompareDirectoryTask subTask : task.subTasks) {
+			// when there were no differences, no nodes should be there and we can safely remove the childNode again
+			if (!subTask.localNode.hasChildren())
+				localNode.removeChildNode(subTask.localNode);
 		}
+		localNode.compactChildren();
 	}
 	
-	private void compareChildren(DiffNode localNode, File childA, File childB) throws CancelationException, IOException {
+	private void compareChildren(CompareDirectoryTask task, FileEntry entryA, FileEntry entryB)
+			throws CancelationException, IOException {
+		DiffNode localNode = task.localNode;
 		// left and right location contain an element with the same name, but one is a directory and the other a file
-		if (childA.isFile() ^ childB.isFile()) {
-			localNode.createChildNode(childA, DiffStatus.CONFLICT_FILEFOLDER);
-			worked(1);
+		if (entryA.isFile() ^ entryB.isFile()) {
+			localNode.createChildNode(entryA.getName(), entryA.isDirectory(), DiffStatus.CONFLICT_FILEFOLDER);
+			metrics.count(DiffStatus.CONFLICT_FILEFOLDER);
+			checkCanceled();
 			return;
 		}
 		
-		if (childA.isDirectory()) {
-			// add a node with status clean and check the folders' contents
-			DiffNode childNode = localNode.createChildNode(childA, DiffStatus.CLEAN);
-			createNodeTree(childNode);
-			// when there were no differences, no nodes should be there and we can safely remove the childNode again
-			if (!childNode.hasChildren()) {
-				localNode.removeChildNode(childNode);
-			}
+		if (entryA.isDirectory()) {
+			// add a node with status clean and let a sub-task check the folders' contents
+			DiffNode childNode = localNode.createChildNode(entryA.getName(), true, DiffStatus.CLEAN);
+			task.subTasks.add(new CompareDirectoryTask(childNode, entryA.getGlobState()));
 		} else {
-			DiffStatus status = compareFiles(childA, childB);
+			DiffStatus status = compareFiles(task, entryA, entryB);
+			metrics.increment(Metrics.Counter.FILES_COMPARED);
+			if (status != DiffStatus.CLEAN)
+				metrics.count(status);
 			if (getSettings().shouldImplicitlySyncTimestamps() && status == DiffStatus.TOUCH) {
-				if (childA.lastModified() < childB.lastModified()) {
-					touchFile(childA, childB);
+				metrics.increment(Metrics.Counter.FILES_TOUCHED);
+				if (entryA.getLastModified() < entryB.getLastModified()) {
+					touchFile(entryA.getFile(), entryB.getFile());
 				} else {
-					touchFile(childB, childA);
+					touchFile(entryB.getFile(), entryA.getFile());
 				}
 				
 			} else if (status != DiffStatus.CLEAN) {
-				localNode.createChildNode(childA, status);
+				DiffNode childNode = localNode.createChildNode(entryA.getName(), false, status);
+				if (entryA.getSize() <= SyncTask.SMALL_FILE_SIZE && entryB.getSize() <= SyncTask.SMALL_FILE_SIZE)
+					childNode.setSmallFile();
 			}
-			worked(2);
+			checkCanceled();
 		}
 	}
+
+	/**
+	 * Marks the node of a file which only exists in one location as small
+	 * file, so that the {@link SyncTask} doesn't have to read its size again.
+	 */
+	private static void markSmallFile(DiffNode node, FileEntry entry) {
+		if (entry.isFile() && entry.getSize() <= SyncTask.SMALL_FILE_SIZE)
+			node.setSmallFile();
+	}
 	
-	private DiffStatus compareFiles(File fileA, File fileB) throws IOException {
-		if (fileA.length() == fileB.length() && 
-				fileA.lastModified() != fileB.lastModified() && 
+	/**
+	 * Compares two files solely based on the attributes read by the
+	 * {@link DirectoryScanner}. The file content is only read when a checksum
+	 * comparison is required and both files have the same size.
+	 */
+	private DiffStatus compareFiles(CompareDirectoryTask task, FileEntry entryA, FileEntry entryB)
+			throws IOException {
+		boolean sameSize = entryA.getSize() == entryB.getSize();
+		if (sameSize && 
+				entryA.getLastModified() != entryB.getLastModified() && 
 				getSettings().shouldChecksumIfPotentiallyEqual())
 			return DiffStatus.TOUCH;
 
-		if (fileA.lastModified() < fileB.lastModified()) {
-			if (FileUtils.contentEquals(fileA, fileB))
+		if (entryA.getLastModified() < entryB.getLastModified()) {
+			if (sameSize && contentEquals(task, entryA, entryB))
 				return DiffStatus.TOUCH;
 
 			// file B is newer -> file A will be overwritten
 			return DiffStatus.REPLACE_A;
-		} else if (fileA.lastModified() > fileB.lastModified()) {
-			if (FileUtils.contentEquals(fileA, fileB))
+		} else if (entryA.getLastModified() > entryB.getLastModified()) {
+			if (sameSize && contentEquals(task, entryA, entryB))
 				return DiffStatus.TOUCH;
 
 			// file A is newer -> file B will be overwritten
 			return DiffStatus.REPLACE_B;
-		} else if (fileA.length() != fileB.length()) {
+		} else if (!sameSize) {
 			// files have same change date but different size -> conflict
 			return DiffStatus.CONFLICT_TIME;
 		}
 		
-		if (getSettings().shouldAlwaysChecksum() && !FileUtils.contentEquals(fileA, fileB))
-			return DiffStatus.CONFLICT_TIME;
+		if (getSettings().shouldAlwaysChecksum()) {
+			if (!contentEquals(task, entryA, entryB))
+				return DiffStatus.CONFLICT_TIME;
+		} else if (task.knownFiles.contains(entryA, entryB)) {
+			// equality hasn't been verified, but is still known from the last run
+			task.equalFiles.add(entryA, entryB);
+		}
 		
 		return DiffStatus.CLEAN;
 	}
+
+	/**
+	 * Compares the content of both files unless the pair is known to be equal
+	 * from the {@link SnapshotIndex} of the last run. The index isn't
+	 * consulted when the user asked to always compare the contents. Equal
+	 * pairs are recorded in the index of this run.
+	 */
+	private boolean contentEquals(CompareDirectoryTask task, FileEntry entryA, FileEntry entryB)
+			throws IOException {
+		boolean known = !getSettings().shouldAlwaysChecksum() && task.knownFiles.contains(entryA, entryB);
+		if (!known && !contentComparator.contentEquals(entryA, entryB))
+			return false;
+
+		task.equalFiles.add(entryA, entryB);
+		return true;
+	}
 	
-	private void filter(DiffNode node) {
-		for (int i = 0; i < node.getChildren().size(); i++) {
-			DiffNode child = node.getChildren().get(i);
-			if (!getPlugin().getSettings().isValid(child.getName())) {
-				child.remove();
-				i--;
-			} else if (child.hasChildren())
-				filter(child);
-		}
+	/**
+	 * checks for user-cancel inputs and throws a <code>CancelationException</code>
+	 * on a cancel() which is caught in the <code>run()</code>-Method of this
+	 * Job. Also stops all other workers when one of them failed.
+	 */
+	private void checkCanceled() throws CancelationException {
+		if (aborted)
+			throw new CancelationException();
+		if (monitor.isCanceled())
+			throw new CancelationException();
 	}
 
 	/**
-	 * help-function which is heavily used by
-	 * <code>buildDiffTreeRecursively</code>.<br>
-	 * It increments the number of processed files by <code>numOfFiles</code>
-	 * and updates the monitor appropriately.<br>
-	 * It also checks for user-cancel inputs and throws a
-	 * <code>RuntimeException</code> on a cancel() which is caught in the
-	 * <code>run()</code>-Method of this Job.
+	 * help-function which is called by <code>createNodeTree</code> once the
+	 * listing of a directory has been compared.<br>
+	 * Both trees are walked only once, so the total amount of work is unknown
+	 * in advance. Instead, the progress is estimated by the fraction of
+	 * processed directories among all directories discovered so far. As this
+	 * fraction drops whenever new directories are discovered, the monitor only
+	 * moves forward when the estimate exceeds the work reported so far.<br>
+	 * As it is called concurrently by all comparison workers, access to the
+	 * counters and the monitor is synchronised.
 	 * 
-	 * @param numOfFiles
+	 * @param subDirectories
+	 *            number of sub-directories discovered in the processed
+	 *            directory, which still have to be compared
 	 */
-	private void worked(long filesProcessed) throws CancelationException {
-		if (monitor.isCanceled())
-			throw new CancelationException();
+	private synchronized void worked(int subDirectories) throws CancelationException {
+		checkCanceled();
 
-		filesProcessedSoFar += filesProcessed;
+		directoriesDiscovered += subDirectories;
+		directoriesProcessed++;
 
-		int step = (int) ((filesProcessedSoFar * WORK_MAX) / totalFilesToProcess) - worked;
-		if (step == 0)
+		int step = (int) ((directoriesProcessed * WORK_MAX) / directoriesDiscovered) - worked;
+		if (step <= 0)
 			return;
 
 		monitor.worked(step);
@@ -0,0 +1,113 @@
+package net.syncarus.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Lists the content of directories together with the attributes of all
+ * entries. In contrast to {@link File#listFiles()} followed by calls to
+ * <code>isFile()</code>, <code>length()</code>, etc., the attributes of each
+ * entry are read exactly once. On platforms where the directory listing
+ * already delivers the attributes (e.g. Windows), no additional stat call is
+ * necessary at all.<br>
+ * Entries excluded by a {@link NameFilter} or a {@link GlobFilter} are dropped
+ * while listing, so no further work is spent on them and excluded folders are
+ * never opened.<br>
+ * Temporary files of copy operations are never listed. Such files are found
+ * when a synchronisation is still running or has been interrupted by a crash,
+ * so they may be collected for the {@link SyncTask} to remove them.
+ */
+public class DirectoryScanner {
+	/**
+	 * Symbolic links are followed, just like {@link File#isFile()} and
+	 * {@link File#isDirectory()} do.
+	 */
+	private static final EnumSet<FileVisitOption> OPTIONS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+	private static class ListingVisitor extends SimpleFileVisitor<Path> {
+		private final File parent;
+		private final NameFilter nameFilter;
+		private final GlobFilter.State globState;
+		private final Collection<FileEntry> tempFiles;
+		private final List<FileEntry> entries = new ArrayList<FileEntry>();
+
+		public ListingVisitor(File parent, NameFilter nameFilter, GlobFilter.State globState,
+				Collection<FileEntry> tempFiles) {
+			this.parent = parent;
+			this.nameFilter = nameFilter;
+			this.globState = globState;
+			this.tempFiles = tempFiles;
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+			// with a depth of 1, sub-directories are reported as files as well
+			String name = file.getFileName().toString();
+			if (!nameFilter.accepts(name))
+				return FileVisitResult.CONTINUE;
+			GlobFilter.State state = globState.enter(name);
+			if (state.isExcluded(attributes.isDirectory()))
+				return FileVisitResult.CONTINUE;
+			if (!FileOperation.isTempFile(name) || !attributes.isRegularFile())
+				entries.add(new FileEntry(parent, name, attributes, state));
+			else if (tempFiles != null)
+				tempFiles.add(new FileEntry(parent, name, attributes, state));
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+			// the entry has been deleted after the directory was read
+			if (e instanceof NoSuchFileException)
+				return FileVisitResult.CONTINUE;
+			throw e;
+		}
+	}
+
+	/**
+	 * @param directory
+	 *            the directory to list
+	 * @return all entries of <code>directory</code> in the order they were
+	 *         delivered by the file system
+	 * @throws IOException
+	 *             when the directory or one of its entries cannot be read
+	 */
+	public static List<FileEntry> list(File directory) throws IOException {
+		return list(directory, NameFilter.ACCEPT_ALL, GlobFilter.EMPTY.getRootState(), null);
+	}
+
+	/**
+	 * @param directory
+	 *            the directory to list
+	 * @param nameFilter
+	 *            excludes entries by their names
+	 * @param globState
+	 *            the state of <code>directory</code> within the
+	 *            {@link GlobFilter}, which excludes entries by their paths
+	 * @param tempFiles
+	 *            receives the temporary files of copy operations accepted by
+	 *            both filters, may be <code>null</code>
+	 * @return all entries of <code>directory</code> accepted by both filters
+	 *         in the order they were delivered by the file system, each with
+	 *         its state within the {@link GlobFilter}
+	 * @throws IOException
+	 *             when the directory or one of its entries cannot be read
+	 */
+	public static List<FileEntry> list(File directory, NameFilter nameFilter, GlobFilter.State globState,
+			Collection<FileEntry> tempFiles) throws IOException {
+		ListingVisitor visitor = new ListingVisitor(directory, nameFilter, globState, tempFiles);
+		Files.walkFileTree(directory.toPath(), OPTIONS, 1, visitor);
+		return visitor.entries;
+	}
+}
@@ -0,0 +1,113 @@
+package net.syncarus.core;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+
+/**
+ * Immutable snapshot of a directory entry. The attributes are read only once
+ * by the {@link DirectoryScanner} and are then passed through the whole
+ * comparison process, so that no further stat calls are required.
+ */
+public class FileEntry {
+	/**
+	 * orders entries case-insensitive by name; names differing only in case
+	 * are ordered case-sensitive, so only equal names are considered equal
+	 */
+	public static final Comparator<FileEntry> NAME_ORDER = new Comparator<FileEntry>() {
+		@Override
+		public int compare(FileEntry entry1, FileEntry entry2) {
+			int order = entry1.name.compareToIgnoreCase(entry2.name);
+			return order != 0 ? order : entry1.name.compareTo(entry2.name);
+		}
+	};
+
+	private final File parent;
+	private final String name;
+	private final boolean isDirectory;
+	private final boolean isFile;
+	private final long size;
+	private final long lastModified;
+	private final Object fileKey;
+	private final GlobFilter.State globState;
+
+	/**
+	 * @param globState
+	 *            the state of this entry within the {@link GlobFilter} it has
+	 *            been listed with
+	 */
+	public FileEntry(File parent, String name, BasicFileAttributes attributes, GlobFilter.State globState) {
+		this.parent = parent;
+		this.name = name;
+		this.isDirectory = attributes.isDirectory();
+		this.isFile = attributes.isRegularFile();
+		this.size = attributes.size();
+		this.lastModified = attributes.lastModifiedTime().toMillis();
+		this.fileKey = attributes.fileKey();
+		this.globState = globState;
+	}
+
+	/**
+	 * @return the name of the file or directory without any path information
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return a newly created file object denoting this entry
+	 */
+	public File getFile() {
+		return new File(parent, name);
+	}
+
+	public boolean isDirectory() {
+		return isDirectory;
+	}
+
+	/**
+	 * @return <code>true</code> when this entry is a regular file, i.e. the
+	 *         same as {@link File#isFile()}
+	 */
+	public boolean isFile() {
+		return isFile;
+	}
+
+	/**
+	 * @return the size of this entry in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modification timestamp in milliseconds, i.e. the same as
+	 *         {@link File#lastModified()}
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return an object uniquely identifying the file on its file system (e.g.
+	 *         device and inode) or <code>null</code> if not available
+	 * @see BasicFileAttributes#fileKey()
+	 */
+	public Object getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * @return the state of this entry within the {@link GlobFilter} it has
+	 *         been listed with, which is used to filter the content of
+	 *         directories
+	 */
+	public GlobFilter.State getGlobState() {
+		return globState;
+	}
+
+	@Override
+	public String toString() {
+		return getFile().getAbsolutePath();
+	}
+}
@@ -4,6 +4,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import net.syncarus.model.CancelationException;
 import net.syncarus.model.SyncException;
@@ -29,8 +37,35 @@ import org.apache.commons.io.FileUtils;
  */
 public class FileOperation {
 	/**
-	 * copies all files located at source to the destination located at target
-	 * deleting old content
+	 * number of bytes copied at once by {@link #copyFile(File, File, SyncTask)}
+	 * before the progress is updated
+	 */
+	private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * files are written under a temporary name, which consists of a dot, the
+	 * target name and this suffix, and are renamed once they are complete
+	 */
+	public static final String TEMP_FILE_SUFFIX = ".syncarus-tmp";
+
+	/** longer temporary names are replaced by short unique ones, see {@link #getTempFile(File)} */
+	private static final int MAX_NAME_LENGTH = 255;
+
+	/** size of the buffers used by {@link #copySmallFile(File, File)} */
+	static final int SMALL_FILE_BUFFER_SIZE = 64 * 1024;
+
+	/** every copying thread reuses its own buffer for small files */
+	private static final ThreadLocal<ByteBuffer> SMALL_FILE_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(SMALL_FILE_BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * copies all files located at source to the destination located at target.
+	 * An existing target file is replaced in a single step once the copy is
+	 * complete, an existing target directory is deleted first.
 	 * 
 	 * @param source
 	 *            the source file/folder
@@ -40,7 +75,7 @@ public class FileOperation {
 	 * @throws Exception
 	 */
 	public static void copy(File source, File target, SyncTask runnable) throws IOException, CancelationException {
-		if (target.exists())
+		if (target.exists() && !(source.isFile() && target.isFile()))
 			FileUtils.forceDelete(target);
 		if (source.isFile())
 			copyFile(source, target, runnable);
@@ -49,7 +84,15 @@ public class FileOperation {
 	}
 
 	/**
-	 * copies sourceFile to targetFile using a copy-buffer of 4096 bytes.
+	 * copies sourceFile to targetFile using {@link FileChannel#transferTo}, which
+	 * lets the operating system copy the data without passing it through the
+	 * JVM's heap (e.g. via sendfile on Linux). The file is transferred in chunks
+	 * of {@link #TRANSFER_CHUNK_SIZE} bytes, after each of which the progress is
+	 * reported and cancellation is checked.<br>
+	 * The copy is written to a temporary file next to the target, which then
+	 * replaces the target, see {@link #moveIntoPlace(File, File)}. So the
+	 * target keeps its old content until the copy is complete, and a partial
+	 * copy only leaves a temporary file behind.
 	 * 
 	 * @param sourceFile
 	 * @param targetFile
@@ -59,33 +102,134 @@ public class FileOperation {
 			CancelationException {
 		SyncarusPlugin.getInstance().getProtocol().add("Copying file '" + sourceFile.getName() + "'");
 
-		if (targetFile.exists())
-			targetFile.delete();
-		byte[] buffer = new byte[4096];
-		FileInputStream fis = new FileInputStream(sourceFile);
-		FileOutputStream fos = new FileOutputStream(targetFile);
-		int len = 0;
-		while ((len = Math.abs(fis.available())) > 0) {
-			fis.read(buffer);
-			if (len > buffer.length)
-				len = buffer.length;
-			fos.write(buffer, 0, len);
+		File tempFile = getTempFile(targetFile);
+		boolean completed = false;
+		FileChannel source = new FileInputStream(sourceFile).getChannel();
+		try {
+			FileChannel target = new FileOutputStream(tempFile).getChannel();
 			try {
-				if (runnable != null)
-					runnable.worked(len);
-			} catch (CancelationException e) {
-				fis.close();
-				fos.close();
-				SyncarusPlugin.getInstance().getProtocol().add("Aborted copy process - deleting file '" + sourceFile.getName() + "'");
-				// avoid having "half" files which are useless
-				targetFile.delete();
-				throw e;
+				long position = 0;
+				long len;
+				// transfer until the end of the file, even when it grows meanwhile
+				while ((len = source.transferTo(position, TRANSFER_CHUNK_SIZE, target)) > 0) {
+					position += len;
+					if (runnable != null)
+						runnable.worked(len);
+				}
+				completed = true;
+			} finally {
+				target.close();
 			}
+		} catch (CancelationException e) {
+			SyncarusPlugin.getInstance().getProtocol().add("Aborted copy process of file '" + sourceFile.getName() + "'");
+			throw e;
+		} finally {
+			source.close();
+			// avoid having "half" files which are useless
+			if (!completed)
+				tempFile.delete();
 		}
-		fis.close();
-		fos.close();
 
-		targetFile.setLastModified(sourceFile.lastModified());
+		tempFile.setLastModified(sourceFile.lastModified());
+		moveIntoPlace(tempFile, targetFile);
+		if (runnable != null)
+			runnable.fileCopied(sourceFile, targetFile);
+	}
+
+	/**
+	 * copies a small file through a buffer which is reused by the calling
+	 * thread. Just like {@link #copyFile(File, File, SyncTask)}, the copy
+	 * replaces the target only once it is complete. Neither the protocol nor the progress is updated, this is left to
+	 * the caller, which usually copies a whole batch of files. A partially
+	 * copied file gets deleted.
+	 * 
+	 * @param sourceFile
+	 * @param targetFile
+	 * @return the number of copied bytes
+	 * @throws IOException
+	 */
+	static long copySmallFile(File sourceFile, File targetFile) throws IOException {
+		File tempFile = getTempFile(targetFile);
+		ByteBuffer buffer = SMALL_FILE_BUFFER.get();
+		long numOfBytes = 0;
+		boolean completed = false;
+		FileChannel source = new FileInputStream(sourceFile).getChannel();
+		try {
+			FileChannel target = new FileOutputStream(tempFile).getChannel();
+			try {
+				// a single read is sufficient unless the file has grown meanwhile
+				buffer.clear();
+				while (source.read(buffer) >= 0) {
+					buffer.flip();
+					while (buffer.hasRemaining())
+						numOfBytes += target.write(buffer);
+					buffer.clear();
+				}
+				completed = true;
+			} finally {
+				target.close();
+			}
+		} finally {
+			source.close();
+			if (!completed)
+				tempFile.delete();
+		}
+
+		tempFile.setLastModified(sourceFile.lastModified());
+		moveIntoPlace(tempFile, targetFile);
+		return numOfBytes;
+	}
+
+	/**
+	 * @return the temporary file which is written instead of
+	 *         <code>targetFile</code>. When the name of the target is too
+	 *         long to be extended, a short unique name is created instead.
+	 */
+	static File getTempFile(File targetFile) throws IOException {
+		String name = "." + targetFile.getName() + TEMP_FILE_SUFFIX;
+		// file systems limit the length of names in bytes or UTF-16 characters, neither exceeds the UTF-8 length
+		if (name.getBytes("UTF-8").length <= MAX_NAME_LENGTH)
+			return new File(targetFile.getParentFile(), name);
+		return File.createTempFile(".syncarus", TEMP_FILE_SUFFIX, targetFile.getParentFile());
+	}
+
+	/**
+	 * @return <code>true</code> when the name is the one of a temporary file
+	 *         written by a copy operation
+	 */
+	public static boolean isTempFile(String name) {
+		return name.startsWith(".") && name.endsWith(TEMP_FILE_SUFFIX);
+	}
+
+	/**
+	 * Renames a completely written temporary file to its target, replacing an
+	 * existing target. Where the file system supports it, this happens
+	 * atomically, so other processes either see the old or the new file.
+	 * Otherwise, the target is replaced by a regular move. The temporary file
+	 * is deleted when it cannot be moved.
+	 */
+	private static void moveIntoPlace(File tempFile, File targetFile) throws IOException {
+		Path source = tempFile.toPath();
+		Path target = targetFile.toPath();
+		boolean moved = false;
+		try {
+			try {
+				Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+			} catch (FileAlreadyExistsException e) {
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AccessDeniedException e) {
+				// read-only files cannot be replaced on some platforms
+				if (targetFile.canWrite() || !targetFile.setWritable(true))
+					throw e;
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved)
+				tempFile.delete();
+		}
 	}
 
 	/**
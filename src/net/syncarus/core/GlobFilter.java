@@ -0,0 +1,337 @@
+package net.syncarus.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Excludes files and folders by rules on their paths relative to the root
+ * folders, following the syntax of <code>.gitignore</code> files:
+ * <ul>
+ * <li>Empty rules and rules starting with <code>#</code> are ignored.</li>
+ * <li><code>*</code> matches anything except <code>/</code>, <code>?</code>
+ * matches a single character and <code>[...]</code> a character class.
+ * <code>\</code> escapes the following character.</li>
+ * <li>A rule ending with <code>/</code> only matches folders.</li>
+ * <li>A rule containing a <code>/</code> elsewhere is anchored at the root
+ * folders, otherwise it matches names at any depth.</li>
+ * <li><code>**</code> as a whole path segment matches any number of folders.</li>
+ * <li>A rule starting with <code>!</code> includes paths excluded by previous
+ * rules again. The last matching rule wins.</li>
+ * </ul>
+ * The content of an excluded folder isn't visited, so a path within it can't
+ * be included again.<br>
+ * All rules are merged into a trie of path segments. Literal segments are
+ * looked up in hash maps, as are segments consisting of a literal prefix or
+ * suffix and a single <code>*</code> (e.g. <code>*.tmp</code>), so the cost
+ * of matching a name hardly depends on the number of rules. The trie is
+ * walked along with the folders: each folder has a {@link State} holding the
+ * trie nodes reached by its path.<br>
+ * Instances are immutable and may be used by several threads concurrently.
+ */
+public class GlobFilter {
+	/** a filter without any rules */
+	public static final GlobFilter EMPTY = new GlobFilter(new String[0]);
+
+	private static final String ANY_FOLDERS = "**";
+
+	/**
+	 * A node of the trie, reached after matching a sequence of path segments.
+	 */
+	private static class Node {
+		private final Map<String, Node> literals = new HashMap<String, Node>();
+		// segments like "*.tmp" and "~*", keyed by their literal part
+		private final Map<String, Node> suffixes = new HashMap<String, Node>();
+		private final Map<String, Node> prefixes = new HashMap<String, Node>();
+		private int[] suffixLengths = new int[0];
+		private int[] prefixLengths = new int[0];
+		// all other segments containing wildcards
+		private final Map<String, Node> globs = new HashMap<String, Node>();
+		private Pattern[] globPatterns = new Pattern[0];
+		private Node[] globNodes = new Node[0];
+		// child for "**", which stays active for all paths below
+		private Node anyFolders = null;
+		private final boolean isAnyFolders;
+
+		// index of the last rule ending here for files and folders, -1 if none
+		private int fileRule = -1;
+		private int folderRule = -1;
+		private boolean fileExcluded;
+		private boolean folderExcluded;
+
+		public Node(boolean isAnyFolders) {
+			this.isAnyFolders = isAnyFolders;
+		}
+
+		public Node child(String segment) {
+			if (segment.equals(ANY_FOLDERS)) {
+				if (anyFolders == null)
+					anyFolders = new Node(true);
+				return anyFolders;
+			}
+
+			int wildcard = indexOfWildcard(segment, 0);
+			if (wildcard < 0)
+				return child(literals, unescape(segment));
+
+			if (indexOfWildcard(segment, wildcard + 1) < 0 && segment.charAt(wildcard) == '*') {
+				if (wildcard == 0) {
+					String suffix = unescape(segment.substring(1));
+					suffixLengths = addLength(suffixLengths, suffix.length());
+					return child(suffixes, suffix);
+				}
+				if (wildcard == segment.length() - 1) {
+					String prefix = unescape(segment.substring(0, wildcard));
+					prefixLengths = addLength(prefixLengths, prefix.length());
+					return child(prefixes, prefix);
+				}
+			}
+
+			Node node = globs.get(segment);
+			if (node == null) {
+				node = new Node(false);
+				globs.put(segment, node);
+				globPatterns = Arrays.copyOf(globPatterns, globPatterns.length + 1);
+				globPatterns[globPatterns.length - 1] = Pattern.compile(toRegEx(segment), Pattern.DOTALL);
+				globNodes = Arrays.copyOf(globNodes, globNodes.length + 1);
+				globNodes[globNodes.length - 1] = node;
+			}
+			return node;
+		}
+
+		private static Node child(Map<String, Node> children, String key) {
+			Node node = children.get(key);
+			if (node == null) {
+				node = new Node(false);
+				children.put(key, node);
+			}
+			return node;
+		}
+
+		private static int[] addLength(int[] lengths, int length) {
+			for (int existing : lengths)
+				if (existing == length)
+					return lengths;
+			int[] result = Arrays.copyOf(lengths, lengths.length + 1);
+			result[lengths.length] = length;
+			return result;
+		}
+
+		/**
+		 * Adds all children matching <code>name</code> to <code>nodes</code>.
+		 */
+		public void collectMatches(String name, List<Node> nodes) {
+			if (isAnyFolders)
+				addClosure(this, nodes);
+
+			if (!literals.isEmpty())
+				addClosure(literals.get(name), nodes);
+			for (int length : suffixLengths)
+				if (length <= name.length())
+					addClosure(suffixes.get(name.substring(name.length() - length)), nodes);
+			for (int length : prefixLengths)
+				if (length <= name.length())
+					addClosure(prefixes.get(name.substring(0, length)), nodes);
+			for (int i = 0; i < globPatterns.length; i++)
+				if (globPatterns[i].matcher(name).matches())
+					addClosure(globNodes[i], nodes);
+		}
+	}
+
+	/**
+	 * The trie nodes reached by the path of a folder. The content of the
+	 * folder is matched against their children.
+	 */
+	public static class State {
+		private static final State NONE = new State(new Node[0]);
+
+		private final Node[] nodes;
+
+		private State(Node[] nodes) {
+			this.nodes = nodes;
+		}
+
+		/**
+		 * @param name
+		 *            name of a file or folder within the folder of this state
+		 * @return the state of the given file or folder
+		 */
+		public State enter(String name) {
+			if (nodes.length == 0)
+				return NONE;
+
+			List<Node> matches = new ArrayList<Node>(4);
+			for (Node node : nodes)
+				node.collectMatches(name, matches);
+			return matches.isEmpty() ? NONE : new State(matches.toArray(new Node[matches.size()]));
+		}
+
+		/**
+		 * Must only be called for the state of a file or folder returned by
+		 * {@link #enter(String)}.
+		 *
+		 * @param isDirectory
+		 *            whether the path denotes a folder
+		 * @return <code>true</code> when the last rule matching the path
+		 *         excludes it
+		 */
+		public boolean isExcluded(boolean isDirectory) {
+			int lastRule = -1;
+			boolean excluded = false;
+			for (Node node : nodes) {
+				if (isDirectory && node.folderRule > lastRule) {
+					lastRule = node.folderRule;
+					excluded = node.folderExcluded;
+				}
+				if (node.fileRule > lastRule) {
+					lastRule = node.fileRule;
+					excluded = node.fileExcluded;
+				}
+			}
+			return excluded;
+		}
+	}
+
+	private final Node root = new Node(false);
+	private final State rootState;
+
+	/**
+	 * @param rules
+	 *            the rules in the syntax of <code>.gitignore</code> files
+	 * @throws IllegalArgumentException
+	 *             when a rule contains an invalid character class
+	 */
+	public GlobFilter(String[] rules) {
+		for (int index = 0; index < rules.length; index++)
+			addRule(rules[index], index);
+
+		List<Node> nodes = new ArrayList<Node>();
+		addClosure(root, nodes);
+		rootState = new State(nodes.toArray(new Node[nodes.size()]));
+	}
+
+	/**
+	 * @return the state of the root folders
+	 */
+	public State getRootState() {
+		return rootState;
+	}
+
+	private void addRule(String rule, int index) {
+		rule = trimTrailingSpaces(rule);
+		if (rule.isEmpty() || rule.startsWith("#"))
+			return;
+
+		boolean negated = rule.startsWith("!");
+		if (negated)
+			rule = rule.substring(1);
+		boolean folderOnly = rule.endsWith("/");
+		if (folderOnly)
+			rule = rule.substring(0, rule.length() - 1);
+		if (rule.isEmpty())
+			return;
+
+		Node node = root;
+		if (rule.indexOf('/') < 0)
+			node = node.child(ANY_FOLDERS);
+		else if (rule.startsWith("/"))
+			rule = rule.substring(1);
+
+		String[] segments = rule.split("/");
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			// empty segments result from duplicate slashes, consecutive "**" are redundant
+			if (segment.isEmpty() || segment.equals(ANY_FOLDERS) && node.isAnyFolders)
+				continue;
+			// a trailing "**" matches everything within the folder, but not the folder itself
+			if (segment.equals(ANY_FOLDERS) && i == segments.length - 1 && node != root)
+				node = node.child("*");
+			node = node.child(segment);
+		}
+		if (node == root)
+			return;
+
+		node.folderRule = index;
+		node.folderExcluded = !negated;
+		if (!folderOnly) {
+			node.fileRule = index;
+			node.fileExcluded = !negated;
+		}
+	}
+
+	/**
+	 * Adds <code>node</code> and, as "**" also matches no folder at all, its
+	 * "**" child to <code>nodes</code>, unless they have already been added.
+	 */
+	private static void addClosure(Node node, List<Node> nodes) {
+		for (; node != null; node = node.anyFolders) {
+			if (nodes.contains(node))
+				return;
+			nodes.add(node);
+		}
+	}
+
+	private static String trimTrailingSpaces(String rule) {
+		int end = rule.length();
+		while (end > 0 && Character.isWhitespace(rule.charAt(end - 1)) && !(end > 1 && rule.charAt(end - 2) == '\\'))
+			end--;
+		return rule.substring(0, end);
+	}
+
+	private static int indexOfWildcard(String segment, int start) {
+		for (int i = start; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '*' || c == '?' || c == '[')
+				return i;
+		}
+		return -1;
+	}
+
+	private static String unescape(String segment) {
+		StringBuilder builder = new StringBuilder(segment.length());
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c == '\\' && i + 1 < segment.length())
+				c = segment.charAt(++i);
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	private static String toRegEx(String segment) {
+		StringBuilder regEx = new StringBuilder();
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			switch (c) {
+			case '*':
+				regEx.append(".*");
+				break;
+			case '?':
+				regEx.append('.');
+				break;
+			case '[':
+				int end = segment.indexOf(']', i + 2);
+				if (end < 0)
+					throw new IllegalArgumentException("Unclosed character class in '" + segment + "'");
+				String characterClass = segment.substring(i + 1, end);
+				if (characterClass.startsWith("!"))
+					characterClass = "^" + characterClass.substring(1);
+				regEx.append('[').append(characterClass.replace("[", "\\[").replace("&&", "&\\&")).append(']');
+				i = end;
+				break;
+			case '\\':
+				if (i + 1 < segment.length())
+					c = segment.charAt(++i);
+				// fall through
+			default:
+				regEx.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regEx.toString();
+	}
+}
@@ -0,0 +1,275 @@
+package net.syncarus.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.syncarus.model.DiffStatus;
+
+/**
+ * Counters and timers of a single run of a {@link SyncarusTask}. Counters may
+ * be updated by all worker threads; they are striped over several cells, so
+ * that concurrent updates rarely contend for the same cache line. The phases
+ * are timed by the thread running the task.<br>
+ * After {@link #finish()}, the metrics can be written in JSON format.
+ */
+public class Metrics {
+	public static enum Counter {
+		DIRECTORIES_SCANNED, ENTRIES_LISTED, FILES_COMPARED, BYTES_COMPARED, CHECKSUM_CACHE_HITS, CHECKSUM_CACHE_MISSES,
+		FILES_COPIED, BYTES_COPIED, BYTES_UNCHANGED, FILES_TOUCHED, FILES_DELETED
+	}
+
+	public static enum Phase {
+		LOAD_SNAPSHOT, COMPARE, SAVE_SNAPSHOT, FLUSH_CHECKSUMS, COUNT_BYTES, SYNCHRONISE
+	}
+
+	/**
+	 * A sum which is updated concurrently. Each thread adds to one of several
+	 * cells, which are read only when the sum is requested.
+	 */
+	static final class StripedCounter {
+		// longs between two cells, so that each cell has a cache line of its own
+		private static final int PADDING = 8;
+		private static final int STRIPES = stripes();
+
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+		private static int stripes() {
+			int stripes = 1;
+			while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64)
+				stripes <<= 1;
+			return stripes;
+		}
+
+		public void add(long value) {
+			int index = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+			cells.addAndGet(index, value);
+		}
+
+		public long sum() {
+			long sum = 0;
+			for (int i = 0; i < STRIPES; i++)
+				sum += cells.get(i * PADDING);
+			return sum;
+		}
+	}
+
+	private final String name;
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final StripedCounter[] counters = new StripedCounter[Counter.values().length];
+	private final StripedCounter[] statusCounts = new StripedCounter[DiffStatus.values().length];
+
+	// duration of each phase in nanoseconds, -1 when the phase hasn't been run
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private Phase currentPhase = null;
+	private long phaseStart;
+	private long duration = -1;
+
+	// time when the cancellation has been requested, 0 if not at all
+	private final AtomicLong cancelRequested = new AtomicLong();
+	private long cancellationLatency = -1;
+
+	/**
+	 * @param name
+	 *            name of the task, e.g. <code>comparison</code>
+	 */
+	public Metrics(String name) {
+		this.name = name;
+		for (int i = 0; i < counters.length; i++)
+			counters[i] = new StripedCounter();
+		for (int i = 0; i < statusCounts.length; i++)
+			statusCounts[i] = new StripedCounter();
+		for (int i = 0; i < phaseNanos.length; i++)
+			phaseNanos[i] = -1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void add(Counter counter, long value) {
+		counters[counter.ordinal()].add(value);
+	}
+
+	public void increment(Counter counter) {
+		counters[counter.ordinal()].add(1);
+	}
+
+	public long get(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	/**
+	 * Counts a node with the given status, i.e. a detected difference or a
+	 * processed node.
+	 */
+	public void count(DiffStatus status) {
+		statusCounts[status.ordinal()].add(1);
+	}
+
+	public long getCount(DiffStatus status) {
+		return statusCounts[status.ordinal()].sum();
+	}
+
+	/**
+	 * Ends the current phase, if any, and starts timing the given one.
+	 */
+	public synchronized void beginPhase(Phase phase) {
+		endPhase();
+		currentPhase = phase;
+		phaseStart = System.nanoTime();
+	}
+
+	private void endPhase() {
+		if (currentPhase == null)
+			return;
+		phaseNanos[currentPhase.ordinal()] = Math.max(0, phaseNanos[currentPhase.ordinal()])
+				+ System.nanoTime() - phaseStart;
+		currentPhase = null;
+	}
+
+	/**
+	 * @return the duration of the phase in nanoseconds or <code>-1</code>
+	 *         when it hasn't been run
+	 */
+	public synchronized long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * Called when the cancellation of the task is requested or first seen,
+	 * only the first call is recorded.
+	 */
+	public void cancelRequested() {
+		cancelRequested.compareAndSet(0, System.nanoTime());
+	}
+
+	/**
+	 * Ends the current phase and the whole run.
+	 */
+	public synchronized void finish() {
+		endPhase();
+		long now = System.nanoTime();
+		duration = now - startNanos;
+		if (cancelRequested.get() != 0)
+			cancellationLatency = now - cancelRequested.get();
+	}
+
+	/**
+	 * @return the duration of the run in nanoseconds or <code>-1</code>
+	 *         before {@link #finish()}
+	 */
+	public synchronized long getDurationNanos() {
+		return duration;
+	}
+
+	/**
+	 * @return the time in nanoseconds from the cancellation being requested
+	 *         until the task stopped or <code>-1</code> when the task hasn't
+	 *         been cancelled
+	 */
+	public synchronized long getCancellationLatencyNanos() {
+		return cancellationLatency;
+	}
+
+	/**
+	 * @return the counter's value per second of the whole run
+	 */
+	public double getRate(Counter counter) {
+		long nanos = getDurationNanos();
+		return nanos <= 0 ? 0 : get(counter) * 1e9 / nanos;
+	}
+
+	/**
+	 * @return <code>DIRECTORIES_SCANNED</code> as
+	 *         <code>directoriesScanned</code>
+	 */
+	static String toKey(Enum<?> value) {
+		StringBuilder key = new StringBuilder();
+		boolean upper = false;
+		for (char c : value.name().toCharArray()) {
+			if (c == '_') {
+				upper = true;
+			} else {
+				key.append(upper ? c : Character.toLowerCase(c));
+				upper = false;
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return <code>DIRECTORIES_SCANNED</code> as
+	 *         <code>Directories scanned</code>
+	 */
+	public static String toLabel(Enum<?> value) {
+		String label = value.name().replace('_', ' ').toLowerCase(Locale.ENGLISH);
+		return Character.toUpperCase(label.charAt(0)) + label.substring(1);
+	}
+
+	public String toJson() {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ROOT);
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"task\": \"").append(name).append("\",\n");
+		json.append("  \"start\": \"").append(dateFormat.format(new Date(startTime))).append("\",\n");
+		json.append("  \"durationMillis\": ").append(getDurationNanos() / 1000000).append(",\n");
+		long latency = getCancellationLatencyNanos();
+		if (latency >= 0)
+			json.append("  \"cancellationLatencyMillis\": ").append(latency / 1000000).append(",\n");
+
+		json.append("  \"phasesMillis\": {");
+		String separator = "\n";
+		for (Phase phase : Phase.values()) {
+			long nanos = getPhaseNanos(phase);
+			if (nanos < 0)
+				continue;
+			json.append(separator).append("    \"").append(toKey(phase)).append("\": ").append(nanos / 1000000);
+			separator = ",\n";
+		}
+		json.append("\n  },\n");
+
+		json.append("  \"counters\": {");
+		separator = "\n";
+		for (Counter counter : Counter.values()) {
+			json.append(separator).append("    \"").append(toKey(counter)).append("\": ").append(get(counter));
+			separator = ",\n";
+		}
+		json.append("\n  },\n");
+
+		json.append("  \"perSecond\": {\n");
+		json.append(String.format(Locale.ROOT, "    \"directories\": %.1f,\n    \"bytesCompared\": %.0f,\n"
+				+ "    \"bytesCopied\": %.0f\n", getRate(Counter.DIRECTORIES_SCANNED), getRate(Counter.BYTES_COMPARED),
+				getRate(Counter.BYTES_COPIED)));
+		json.append("  },\n");
+
+		json.append("  \"statusCounts\": {");
+		separator = "\n";
+		for (DiffStatus status : DiffStatus.values()) {
+			json.append(separator).append("    \"").append(status).append("\": ").append(getCount(status));
+			separator = ",\n";
+		}
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the metrics in JSON format, an existing file is replaced.
+	 */
+	public void save(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(toJson());
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package net.syncarus.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a file name is excluded by one of the filter expressions
+ * configured in the {@link Settings}.<br>
+ * All expressions are compiled into a single alternation, so a name is
+ * matched once instead of once per expression. Expressions containing back
+ * references can't be combined, as group numbers change within the
+ * alternation, and neither can named groups, which may be defined by several
+ * expressions. The same applies to quotations, which may be left open, and
+ * to comments. Such expressions are matched separately.<br>
+ * Instances are immutable and may be used by several threads concurrently,
+ * each thread reuses its own {@link Matcher}.
+ */
+public class NameFilter {
+	/** a filter which doesn't exclude any name */
+	public static final NameFilter ACCEPT_ALL = new NameFilter(new String[0]);
+
+	// back references, named groups, quotations and comment mode; an escaped backslash only leads to a separate pattern
+	private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\([1-9]|k<|Q)|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z-]*x");
+
+	private final Pattern combined;
+	private final Pattern[] separate;
+	private final ThreadLocal<Matcher> matcher = new ThreadLocal<Matcher>() {
+		@Override
+		protected Matcher initialValue() {
+			return combined.matcher("");
+		}
+	};
+
+	/**
+	 * @param expressions
+	 *            regular expressions which have to match the whole name
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             when one of the expressions is invalid
+	 */
+	public NameFilter(String[] expressions) {
+		StringBuilder alternation = new StringBuilder();
+		List<Pattern> separatePatterns = new ArrayList<Pattern>();
+		for (String expression : expressions) {
+			// compile each expression on its own first to report errors for the expression itself
+			Pattern pattern = Pattern.compile(expression);
+			if (NOT_COMBINABLE.matcher(expression).find()) {
+				separatePatterns.add(pattern);
+				continue;
+			}
+			if (alternation.length() > 0)
+				alternation.append('|');
+			alternation.append("(?:").append(expression).append(')');
+		}
+		combined = alternation.length() == 0 ? null : Pattern.compile(alternation.toString());
+		separate = separatePatterns.toArray(new Pattern[separatePatterns.size()]);
+	}
+
+	/**
+	 * @param fileName
+	 *            name of a file or folder without any path
+	 * @return <code>true</code> when no expression matches the name
+	 */
+	public boolean accepts(String fileName) {
+		if (combined != null && matcher.get().reset(fileName).matches())
+			return false;
+		for (Pattern pattern : separate)
+			if (pattern.matcher(fileName).matches())
+				return false;
+		return true;
+	}
+}
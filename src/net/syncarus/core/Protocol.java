@@ -1,83 +1,263 @@
 package net.syncarus.core;
 
+import java.io.PrintStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EventListener;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.swt.widgets.Display;
 
+/**
+ * Collects protocol messages of arbitrary threads and delivers them to the
+ * registered {@link ChangeListener}s within the display thread.<br>
+ * {@link #add(String)} never blocks: messages are put into a lock-free ring
+ * buffer of bounded capacity. When the buffer is full, further messages are
+ * dropped and only their number is reported. A flusher running in the display
+ * thread hands the buffered messages over to the listeners in batches, at most
+ * once per {@link #FRAME_INTERVAL} milliseconds. Delivered entries are kept
+ * in a {@link ProtocolStore}.<br>
+ * Without a display, the protocol is switched to headless operation by
+ * {@link #setHeadless(PrintStream)}.
+ */
 public class Protocol {
 	public static interface ChangeListener extends EventListener {
-		public void newEntry(String message, Date timestamp);
+		/**
+		 * @param entries
+		 *            new entries in chronological order, never empty
+		 */
+		public void newEntries(List<Entry> entries);
 
 		public void clear();
 
 		public void setEnabled(boolean enabled);
 	}
 
-	private static class Entry {
-		public Entry(String message, Date timestamp) {
+	public static class Entry {
+		private final String message;
+		private final long timestamp;
+
+		public Entry(String message, long timestamp) {
 			this.message = message;
 			this.timestamp = timestamp;
 		}
 
-		String message;
-		Date timestamp;
+		public String getMessage() {
+			return message;
+		}
+
+		public Date getTimestamp() {
+			return new Date(timestamp);
+		}
 	}
 
-	private final LinkedList<Entry> logList = new LinkedList<Entry>();
+	/** number of buffered entries, must be a power of two */
+	private static final int CAPACITY = 16384;
+
+	/** maximum number of entries delivered at once */
+	private static final int MAX_BATCH_SIZE = 4096;
+
+	/** minimum time between two deliveries in milliseconds */
+	private static final int FRAME_INTERVAL = 50;
+
+	private final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<Entry>(CAPACITY);
+	// next slot to be claimed by a producer
+	private final AtomicLong tail = new AtomicLong();
+	// next slot to be read by the flusher
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private long lastFlush = 0;
+
+	private final ProtocolStore store = new ProtocolStore();
 	private final LinkedList<ChangeListener> listeners = new LinkedList<ChangeListener>();
-	private boolean enabled = true;
+	private volatile boolean enabled = true;
 
-	public void setEnabled(boolean enabled) {
+	// without a display, messages are written to the console or discarded
+	private volatile boolean headless = false;
+	private PrintStream console = null;
+	private final DateFormat dateFormat = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+
+	private final Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			long delay = lastFlush + FRAME_INTERVAL - System.currentTimeMillis();
+			if (delay > 0) {
+				Display.getCurrent().timerExec((int) delay, this);
+				return;
+			}
+			lastFlush = System.currentTimeMillis();
+			flush();
+			flushScheduled.set(false);
+			// entries added while flushing haven't scheduled another flush
+			if (head.get() != tail.get() && flushScheduled.compareAndSet(false, true))
+				Display.getCurrent().timerExec(FRAME_INTERVAL, this);
+		}
+	};
+
+	/**
+	 * Switches to headless operation, the display isn't accessed anymore.
+	 * Messages aren't buffered and listeners aren't informed; instead, each
+	 * message is written to <code>console</code> immediately.
+	 * 
+	 * @param console
+	 *            the stream messages are written to, <code>null</code> to
+	 *            discard all messages
+	 */
+	public void setHeadless(PrintStream console) {
+		this.console = console;
+		this.headless = true;
+	}
+
+	public void setEnabled(final boolean enabled) {
 		this.enabled = enabled;
-		clear();
+		if (headless)
+			return;
+		runInDisplayThread(new Runnable() {
+			@Override
+			public void run() {
+				discardEntries();
+				for (ChangeListener listener : listeners) {
+					listener.setEnabled(enabled);
+					listener.clear();
+				}
+			}
+		});
 	}
 
-	public synchronized void add(String message) {
-		Date timestamp = new Date();
-		logList.add(new Entry(message, timestamp));
+	/**
+	 * Appends a message to the protocol. This method may be called by any
+	 * thread and returns immediately.
+	 */
+	public void add(String message) {
 		if (!enabled)
 			return;
-		syncNotify();
+		if (headless) {
+			print(message);
+			return;
+		}
+
+		Entry entry = new Entry(message, System.currentTimeMillis());
+		while (true) {
+			long position = tail.get();
+			if (position - head.get() >= CAPACITY) {
+				dropped.incrementAndGet();
+				break;
+			}
+			if (tail.compareAndSet(position, position + 1)) {
+				ring.set((int) (position & (CAPACITY - 1)), entry);
+				break;
+			}
+		}
+
+		if (flushScheduled.compareAndSet(false, true))
+			Display.getDefault().asyncExec(flusher);
 	}
 
-	private synchronized void syncNotify() {
-		// notify listeners
-		if (Display.getCurrent() == null) {
-			Display.getDefault().syncExec(new Runnable() {
-				@Override
-				public void run() {
-					notifyListeners();
-				}
-			});
-		} else
-			notifyListeners();
+	/**
+	 * Takes entries out of the ring buffer. Must only be called within the
+	 * display thread, which is the only consumer.
+	 *
+	 * @param maxEntries
+	 *            maximum number of entries to be taken
+	 * @return the taken entries, an entry reporting dropped messages is
+	 *         appended when necessary
+	 */
+	private List<Entry> takeEntries(int maxEntries) {
+		List<Entry> entries = new ArrayList<Entry>();
+		long position = head.get();
+		while (entries.size() < maxEntries) {
+			int index = (int) (position & (CAPACITY - 1));
+			// null when the slot hasn't been claimed or not yet been written
+			Entry entry = ring.get(index);
+			if (entry == null)
+				break;
+			ring.set(index, null);
+			head.set(++position);
+			entries.add(entry);
+		}
+
+		long numOfDropped = dropped.getAndSet(0);
+		if (numOfDropped > 0)
+			entries.add(new Entry(numOfDropped + " further messages have been dropped", System.currentTimeMillis()));
+		return entries;
 	}
 
-	private void notifyListeners() {
-		for (ChangeListener listener : listeners)
-			listener.setEnabled(this.enabled);
-		if (logList.isEmpty()) {
-			for (ChangeListener listener : listeners)
-				listener.clear();
-		} else {
-			Entry entry = logList.getLast();
-			for (ChangeListener listener : listeners)
-				listener.newEntry(entry.message, entry.timestamp);
+	private void print(String message) {
+		if (console == null)
+			return;
+		// the date format is guarded by the console as well
+		synchronized (console) {
+			console.println(dateFormat.format(new Date()) + " " + message);
 		}
 	}
 
+	private void flush() {
+		List<Entry> entries = takeEntries(MAX_BATCH_SIZE);
+		if (entries.isEmpty() || !enabled)
+			return;
+		store.addAll(entries);
+		for (ChangeListener listener : listeners)
+			listener.newEntries(entries);
+	}
+
+	private void discardEntries() {
+		takeEntries(CAPACITY);
+		store.clear();
+	}
+
+	private static void runInDisplayThread(Runnable runnable) {
+		if (Display.getCurrent() == null)
+			Display.getDefault().asyncExec(runnable);
+		else
+			runnable.run();
+	}
+
+	/**
+	 * @return all entries delivered so far, must only be accessed within the
+	 *         display thread
+	 */
+	public ProtocolStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Releases the disk space used by the store. Must only be called after the
+	 * display thread has stopped to access the protocol.
+	 */
+	public void dispose() {
+		store.close();
+	}
+
+	/**
+	 * Must be called within the display thread.
+	 */
 	public void addListener(ChangeListener listener) {
 		listeners.add(listener);
 	}
 
+	/**
+	 * Must be called within the display thread.
+	 */
 	public void removeListener(ChangeListener listener) {
 		listeners.remove(listener);
 	}
 
-	public synchronized void clear() {
-		logList.clear();
-		syncNotify();
+	public void clear() {
+		if (headless)
+			return;
+		runInDisplayThread(new Runnable() {
+			@Override
+			public void run() {
+				discardEntries();
+				for (ChangeListener listener : listeners)
+					listener.clear();
+			}
+		});
 	}
 }
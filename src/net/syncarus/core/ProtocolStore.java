@@ -0,0 +1,148 @@
+package net.syncarus.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores all entries of a {@link Protocol} and provides random access to them
+ * by index, as required by a virtual table.<br>
+ * Only the most recent {@link #MEMORY_CAPACITY} entries are kept in memory.
+ * Older entries are spilled to a temporary file in blocks; an index of their
+ * file offsets allows to read single entries on demand.<br>
+ * This class isn't thread-safe, it is only accessed within the display thread.
+ */
+public class ProtocolStore {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** maximum number of entries kept in memory */
+	private static final int MEMORY_CAPACITY = 10000;
+
+	/** number of entries spilled to disk at once */
+	private static final int SPILL_SIZE = MEMORY_CAPACITY / 2;
+
+	// ring buffer of the most recent entries
+	private final Protocol.Entry[] entries = new Protocol.Entry[MEMORY_CAPACITY];
+	private int first = 0;
+	private int numInMemory = 0;
+
+	// file offsets of the spilled entries, -1 for entries which couldn't be spilled
+	private long[] offsets = new long[SPILL_SIZE];
+	private int numSpilled = 0;
+	private File spillFile = null;
+	private RandomAccessFile spillAccess = null;
+
+	/**
+	 * @return total number of stored entries
+	 */
+	public int size() {
+		return numSpilled + numInMemory;
+	}
+
+	public void addAll(List<Protocol.Entry> newEntries) {
+		for (Protocol.Entry entry : newEntries) {
+			if (numInMemory == MEMORY_CAPACITY)
+				spill();
+			entries[(first + numInMemory) % MEMORY_CAPACITY] = entry;
+			numInMemory++;
+		}
+	}
+
+	/**
+	 * @param index
+	 *            index of the entry, the oldest entry has index <code>0</code>
+	 * @return the entry, which is read from disk when it has been spilled
+	 */
+	public Protocol.Entry get(int index) {
+		if (index >= numSpilled)
+			return entries[(first + index - numSpilled) % MEMORY_CAPACITY];
+
+		if (spillAccess != null && offsets[index] >= 0) {
+			try {
+				spillAccess.seek(offsets[index]);
+				byte[] message = new byte[spillAccess.readInt()];
+				spillAccess.readFully(message);
+				return new Protocol.Entry(new String(message, UTF_8), spillAccess.readLong());
+			} catch (IOException e) {
+				// handled below like an entry which couldn't be spilled
+			}
+		}
+		return new Protocol.Entry("(entry not available)", 0);
+	}
+
+	/**
+	 * Writes the oldest {@link #SPILL_SIZE} entries to the spill file at once
+	 * and removes them from memory.
+	 */
+	private void spill() {
+		if (numSpilled + SPILL_SIZE > offsets.length)
+			offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, numSpilled + SPILL_SIZE));
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(SPILL_SIZE * 64);
+		DataOutputStream out = new DataOutputStream(buffer);
+		long[] relativeOffsets = new long[SPILL_SIZE];
+		try {
+			for (int i = 0; i < SPILL_SIZE; i++) {
+				Protocol.Entry entry = entries[(first + i) % MEMORY_CAPACITY];
+				relativeOffsets[i] = out.size();
+				// writeUTF() is limited to 64 KB
+				byte[] message = entry.getMessage().getBytes(UTF_8);
+				out.writeInt(message.length);
+				out.write(message);
+				out.writeLong(entry.getTimestamp().getTime());
+			}
+
+			if (spillAccess == null) {
+				spillFile = File.createTempFile("syncarus_protocol", ".log");
+				spillFile.deleteOnExit();
+				spillAccess = new RandomAccessFile(spillFile, "rw");
+			}
+			long position = spillAccess.length();
+			spillAccess.seek(position);
+			spillAccess.write(buffer.toByteArray());
+			for (int i = 0; i < SPILL_SIZE; i++)
+				offsets[numSpilled + i] = position + relativeOffsets[i];
+		} catch (IOException e) {
+			Arrays.fill(offsets, numSpilled, numSpilled + SPILL_SIZE, -1);
+		}
+
+		for (int i = 0; i < SPILL_SIZE; i++)
+			entries[(first + i) % MEMORY_CAPACITY] = null;
+		first = (first + SPILL_SIZE) % MEMORY_CAPACITY;
+		numInMemory -= SPILL_SIZE;
+		numSpilled += SPILL_SIZE;
+	}
+
+	/**
+	 * Removes all entries including the spill file.
+	 */
+	public void clear() {
+		Arrays.fill(entries, null);
+		first = 0;
+		numInMemory = 0;
+		offsets = new long[SPILL_SIZE];
+		numSpilled = 0;
+		close();
+	}
+
+	/**
+	 * Deletes the spill file. Spilled entries aren't available afterwards.
+	 */
+	public void close() {
+		if (spillAccess == null)
+			return;
+		try {
+			spillAccess.close();
+		} catch (IOException e) {
+			// the file gets deleted anyway
+		}
+		spillFile.delete();
+		spillAccess = null;
+		spillFile = null;
+	}
+}
@@ -3,7 +3,6 @@ package net.syncarus.core;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.regex.Pattern;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.util.IPropertyChangeListener;
@@ -11,17 +10,38 @@ import org.eclipse.jface.util.PropertyChangeEvent;
 
 public class Settings {
 	public static final String PREFKEY_FILTER = "syncarus_filter_regexp";
+	public static final String PREFKEY_GLOB_FILTER = "syncarus_filter_glob";
 	public static final String PREFKEY_IMPLICITLY_SYNC_TIMESTAMPS = "syncarus_implicitly_sync_timestamps";
 	public static final String PREFKEY_CHECKSUM_IF_POTENTIALLY_EQUAL = "syncarus_checksum_if_potentially_equal";
 	public static final String PREFKEY_ALWAYS_CHECKSUM = "syncarus_always_checksum";
+	public static final String PREFKEY_COMPARISON_THREADS = "syncarus_comparison_threads";
+	public static final String PREFKEY_MAPPING_THRESHOLD = "syncarus_mapping_threshold";
+	public static final String PREFKEY_MAPPING_WINDOW_SIZE = "syncarus_mapping_window_size";
+	public static final String PREFKEY_USE_SNAPSHOT_INDEX = "syncarus_use_snapshot_index";
+	public static final String PREFKEY_USE_CHECKSUM_CACHE = "syncarus_use_checksum_cache";
+	public static final String PREFKEY_SYNC_THREADS = "syncarus_sync_threads";
+	public static final String PREFKEY_SYNC_THREADS_PER_DEVICE = "syncarus_sync_threads_per_device";
+	public static final String PREFKEY_EXPORT_METRICS = "syncarus_export_metrics";
+	public static final String PREFKEY_DELTA_THRESHOLD = "syncarus_delta_threshold";
 	private static final String FILTER_SEPARATOR = " #|# ";
+	// path rules may contain spaces, '#' and '|', but not line breaks
+	private static final String GLOB_RULE_SEPARATOR = "\n";
 
 	private IPreferenceStore preferenceStore;
 	
-	private List<Pattern> namePattern = new ArrayList<Pattern>();
+	private volatile NameFilter nameFilter = NameFilter.ACCEPT_ALL;
+	private volatile GlobFilter globFilter = GlobFilter.EMPTY;
 
 	public Settings(IPreferenceStore preferenceStore) {
 		this.preferenceStore = preferenceStore;
+		preferenceStore.setDefault(PREFKEY_COMPARISON_THREADS, Runtime.getRuntime().availableProcessors());
+		preferenceStore.setDefault(PREFKEY_MAPPING_THRESHOLD, 256);
+		preferenceStore.setDefault(PREFKEY_MAPPING_WINDOW_SIZE, 64);
+		preferenceStore.setDefault(PREFKEY_USE_SNAPSHOT_INDEX, true);
+		preferenceStore.setDefault(PREFKEY_USE_CHECKSUM_CACHE, true);
+		preferenceStore.setDefault(PREFKEY_SYNC_THREADS, 1);
+		preferenceStore.setDefault(PREFKEY_SYNC_THREADS_PER_DEVICE, 2);
+		preferenceStore.setDefault(PREFKEY_EXPORT_METRICS, true);
 		preferenceStore.addPropertyChangeListener(new IPropertyChangeListener() {
 			@Override
 			public void propertyChange(PropertyChangeEvent event) {
@@ -34,9 +54,8 @@ public class Settings {
 	}
 
 	private void update() {
-		namePattern.clear();
-		for (String item : filterFromPreferenceString(preferenceStore.getString(PREFKEY_FILTER)))
-			namePattern.add(Pattern.compile(item));
+		nameFilter = new NameFilter(filterFromPreferenceString(preferenceStore.getString(PREFKEY_FILTER)));
+		globFilter = new GlobFilter(globRulesFromPreferenceString(preferenceStore.getString(PREFKEY_GLOB_FILTER)));
 	}
 
 	public static String[] filterFromPreferenceString(String preferenceString) {
@@ -68,6 +87,31 @@ public class Settings {
 		return builder.toString();
 	}
 
+	/**
+	 * Splits the value of {@link #PREFKEY_GLOB_FILTER} into its rules, which
+	 * are stored one per line.
+	 */
+	public static String[] globRulesFromPreferenceString(String preferenceString) {
+		List<String> rules = new ArrayList<String>();
+		for (String rule : preferenceString.split(GLOB_RULE_SEPARATOR))
+			if (!rule.isEmpty())
+				rules.add(rule);
+		return rules.toArray(new String[rules.size()]);
+	}
+
+	/**
+	 * The corresponding method for
+	 * {@link Settings#globRulesFromPreferenceString(String)}.
+	 */
+	public static String globRulesToPreferenceString(String[] rules) {
+		StringBuilder builder = new StringBuilder();
+		for (String rule : rules) {
+			builder.append(rule);
+			builder.append(GLOB_RULE_SEPARATOR);
+		}
+		return builder.toString();
+	}
+
 	/**
 	 * Checks if the file should be ignored or not.
 	 * 
@@ -77,11 +121,23 @@ public class Settings {
 	 *         synchronisation process, <code>false</code> if not.
 	 */
 	public boolean isValid(String fileName) {
-		for (Pattern pattern : namePattern)
-			if (pattern.matcher(fileName).matches())
-				return false;
-
-		return true;
+		return nameFilter.accepts(fileName);
+	}
+	
+	/**
+	 * @return the filter compiled from the current filter expressions, which
+	 *         isn't affected by later changes of the preferences
+	 */
+	public NameFilter getNameFilter() {
+		return nameFilter;
+	}
+	
+	/**
+	 * @return the filter compiled from the current path rules, which isn't
+	 *         affected by later changes of the preferences
+	 */
+	public GlobFilter getGlobFilter() {
+		return globFilter;
 	}
 	
 	/**
@@ -121,4 +177,100 @@ public class Settings {
 			return false;
 		return Boolean.valueOf(value);
 	}
+	
+	/**
+	 * If <code>true</code>: Files which were known to be equal after the last
+	 * comparison or synchronisation and whose size and modification dates
+	 * haven't changed since then are assumed to be still equal, without
+	 * calculating checksums again. See {@link SnapshotIndex}.
+	 */
+	public boolean shouldUseSnapshotIndex() {
+		String value = preferenceStore.getString(PREFKEY_USE_SNAPSHOT_INDEX);
+		if (value.isEmpty())
+			return false;
+		return Boolean.valueOf(value);
+	}
+	
+	/**
+	 * If <code>true</code>: Checksums of files are stored in the
+	 * {@link ChecksumCache}, so the content of a file is only read again after
+	 * it has been modified.
+	 * If <code>false</code>: File contents are always compared byte by byte.
+	 */
+	public boolean shouldUseChecksumCache() {
+		String value = preferenceStore.getString(PREFKEY_USE_CHECKSUM_CACHE);
+		if (value.isEmpty())
+			return false;
+		return Boolean.valueOf(value);
+	}
+	
+	/**
+	 * The number of threads which compare directories concurrently. A value
+	 * of <code>1</code> compares both locations with a single thread.
+	 */
+	public int getComparisonThreads() {
+		return Math.max(1, preferenceStore.getInt(PREFKEY_COMPARISON_THREADS));
+	}
+	
+	/**
+	 * Files of at least this size are compared by memory-mapping them instead
+	 * of reading them into buffers. The value is configured in megabytes;
+	 * <code>0</code> disables memory-mapping.
+	 * 
+	 * @return the threshold in bytes
+	 */
+	public long getMappingThreshold() {
+		return Math.max(0, preferenceStore.getInt(PREFKEY_MAPPING_THRESHOLD)) * 1024L * 1024L;
+	}
+	
+	/**
+	 * The size of the windows in which large files are mapped into memory. The
+	 * value is configured in megabytes and limited to 1GB, so that the address
+	 * space required by parallel comparisons remains bounded.
+	 * 
+	 * @return the window size in bytes
+	 */
+	public int getMappingWindowSize() {
+		return Math.min(1024, Math.max(1, preferenceStore.getInt(PREFKEY_MAPPING_WINDOW_SIZE))) * 1024 * 1024;
+	}
+	
+	/**
+	 * The number of file operations which are executed concurrently during a
+	 * synchronisation. A value of <code>1</code> processes all nodes one after
+	 * the other.
+	 */
+	public int getSyncThreads() {
+		return Math.max(1, preferenceStore.getInt(PREFKEY_SYNC_THREADS));
+	}
+	
+	/**
+	 * The maximum number of file operations which access the same device
+	 * concurrently. Spinning disks should use a low value to avoid seeking.
+	 */
+	public int getSyncThreadsPerDevice() {
+		return Math.max(1, preferenceStore.getInt(PREFKEY_SYNC_THREADS_PER_DEVICE));
+	}
+	
+	/**
+	 * Older files of at least this size are updated in place by a
+	 * {@link DeltaTransfer} instead of being replaced by a copy. The value is
+	 * configured in megabytes; <code>0</code> disables delta transfers.
+	 * 
+	 * @return the threshold in bytes
+	 */
+	public long getDeltaThreshold() {
+		return Math.max(0, preferenceStore.getInt(PREFKEY_DELTA_THRESHOLD)) * 1024L * 1024L;
+	}
+	
+	/**
+	 * If <code>true</code>: The {@link Metrics} of every comparison and
+	 * synchronisation are written to the plugin's state location in JSON
+	 * format.
+	 */
+	public boolean shouldExportMetrics() {
+		String value = preferenceStore.getString(PREFKEY_EXPORT_METRICS);
+		if (value.isEmpty())
+			return false;
+		return Boolean.valueOf(value);
+	}
 }
@@ -0,0 +1,293 @@
+package net.syncarus.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent index of all files which were known to be identical in both
+ * locations after the last comparison or synchronisation. For every such file
+ * pair, its size and the modification timestamps in A and B are recorded.<br>
+ * When a later comparison finds both files with unchanged attributes, their
+ * content doesn't have to be read again to know that they are still equal.<br>
+ * The index is grouped by the relative path of the parent directory; lookups
+ * within a directory use a binary search over the sorted file names.
+ */
+public class SnapshotIndex {
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * A file pair which is known to have identical content.
+	 */
+	private static class Record implements Comparable<Record> {
+		final String name;
+		final long size;
+		final long lastModifiedA;
+		final long lastModifiedB;
+
+		Record(String name, long size, long lastModifiedA, long lastModifiedB) {
+			this.name = name;
+			this.size = size;
+			this.lastModifiedA = lastModifiedA;
+			this.lastModifiedB = lastModifiedB;
+		}
+
+		@Override
+		public int compareTo(Record other) {
+			return name.compareTo(other.name);
+		}
+	}
+
+	/**
+	 * All recorded file pairs of a single directory. Records are appended while
+	 * a directory is compared and sorted once before the directory is put into
+	 * an index.
+	 */
+	public static class Directory {
+		private static final Record[] EMPTY = new Record[0];
+
+		private Record[] records = EMPTY;
+		private int size = 0;
+
+		/**
+		 * Remember that the file pair <code>entryA</code> and
+		 * <code>entryB</code> has identical content.
+		 */
+		public void add(FileEntry entryA, FileEntry entryB) {
+			add(new Record(entryA.getName(), entryA.getSize(), entryA.getLastModified(), entryB.getLastModified()));
+		}
+
+		private void add(Record record) {
+			if (size == records.length)
+				records = Arrays.copyOf(records, Math.max(4, size * 2));
+			records[size++] = record;
+		}
+
+		/**
+		 * @return <code>true</code> when the file pair has been recorded with
+		 *         exactly the same size and timestamps
+		 */
+		public boolean contains(FileEntry entryA, FileEntry entryB) {
+			int index = Arrays.binarySearch(records, 0, size, new Record(entryA.getName(), 0, 0, 0));
+			if (index < 0)
+				return false;
+			Record record = records[index];
+			return record.size == entryA.getSize() && record.size == entryB.getSize()
+					&& record.lastModifiedA == entryA.getLastModified()
+					&& record.lastModifiedB == entryB.getLastModified();
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		private void sort() {
+			records = Arrays.copyOf(records, size);
+			Arrays.sort(records);
+		}
+
+		/**
+		 * @return a copy of this directory containing the given records;
+		 *         existing records with the same names get replaced
+		 */
+		private Directory with(List<Record> added) {
+			Set<String> names = new HashSet<String>();
+			for (Record record : added)
+				names.add(record.name);
+
+			Directory copy = new Directory();
+			for (int i = 0; i < size; i++)
+				if (!names.contains(records[i].name))
+					copy.add(records[i]);
+			for (Record record : added)
+				copy.add(record);
+			copy.sort();
+			return copy;
+		}
+	}
+
+	private static final Directory EMPTY_DIRECTORY = new Directory();
+
+	private final String rootPathA;
+	private final String rootPathB;
+	private final Map<String, Directory> directories = new ConcurrentHashMap<String, Directory>();
+
+	public SnapshotIndex(String rootPathA, String rootPathB) {
+		this.rootPathA = rootPathA;
+		this.rootPathB = rootPathB;
+	}
+
+	/**
+	 * @param relativePath
+	 *            relative path of a directory as returned by
+	 *            {@link net.syncarus.model.DiffNode#getRelativePath()}
+	 * @return the recorded files of that directory - at least an empty
+	 *         directory
+	 */
+	public Directory getDirectory(String relativePath) {
+		Directory directory = directories.get(relativePath);
+		return directory == null ? EMPTY_DIRECTORY : directory;
+	}
+
+	/**
+	 * Replaces all records of a directory. This method may be called
+	 * concurrently for different directories.
+	 */
+	public void putDirectory(String relativePath, Directory directory) {
+		if (directory.isEmpty()) {
+			directories.remove(relativePath);
+			return;
+		}
+		directory.sort();
+		directories.put(relativePath, directory);
+	}
+
+	/**
+	 * Records a single file which has just been copied from
+	 * <code>source</code> to <code>target</code>.
+	 *
+	 * @param source
+	 *            the copied file
+	 * @param target
+	 *            the copy, located in one of both root paths
+	 */
+	public void addCopy(File source, File target) {
+		addCopies(Collections.singletonList(source), Collections.singletonList(target));
+	}
+
+	/**
+	 * Records several copied files at once, so that every affected directory
+	 * is rebuilt only once.
+	 *
+	 * @param sources
+	 *            the copied files
+	 * @param targets
+	 *            the copies in the same order, located in one of both root
+	 *            paths
+	 */
+	public synchronized void addCopies(List<File> sources, List<File> targets) {
+		Map<String, List<Record>> added = new HashMap<String, List<Record>>();
+		for (int i = 0; i < sources.size(); i++) {
+			File source = sources.get(i);
+			String targetPath = targets.get(i).getAbsolutePath();
+			boolean targetIsB = targetPath.startsWith(rootPathB + File.separator);
+			if (!targetIsB && !targetPath.startsWith(rootPathA + File.separator))
+				continue;
+
+			String relativePath = targetPath.substring((targetIsB ? rootPathB : rootPathA).length());
+			int nameStart = relativePath.lastIndexOf(File.separatorChar);
+			String directoryPath = nameStart == 0 ? File.separator : relativePath.substring(0, nameStart);
+
+			List<Record> records = added.get(directoryPath);
+			if (records == null) {
+				records = new ArrayList<Record>();
+				added.put(directoryPath, records);
+			}
+			long lastModified = source.lastModified();
+			records.add(new Record(relativePath.substring(nameStart + 1), source.length(), lastModified,
+					lastModified));
+		}
+
+		for (Map.Entry<String, List<Record>> entry : added.entrySet())
+			directories.put(entry.getKey(), getDirectory(entry.getKey()).with(entry.getValue()));
+	}
+
+	/**
+	 * @return the file which stores the index of the root paths A and B within
+	 *         <code>stateDirectory</code>
+	 */
+	public static File getIndexFile(File stateDirectory, String rootPathA, String rootPathB) {
+		String key = rootPathA + File.pathSeparator + rootPathB;
+		return new File(stateDirectory, String.format("snapshot_%08x.idx", key.hashCode()));
+	}
+
+	/**
+	 * Loads an index written by {@link #save(File)}. A missing, unreadable or
+	 * foreign index file results in an empty index, as the index only serves as
+	 * an optimisation.
+	 */
+	public static SnapshotIndex load(File file, String rootPathA, String rootPathB) {
+		SnapshotIndex index = new SnapshotIndex(rootPathA, rootPathB);
+		if (!file.isFile())
+			return index;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+					new FileInputStream(file))));
+			try {
+				if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(rootPathA)
+						|| !in.readUTF().equals(rootPathB))
+					return index;
+
+				int numOfDirectories = in.readInt();
+				for (int i = 0; i < numOfDirectories; i++) {
+					String relativePath = in.readUTF();
+					Directory directory = new Directory();
+					int numOfRecords = in.readInt();
+					for (int j = 0; j < numOfRecords; j++)
+						directory.add(new Record(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+					index.directories.put(relativePath, directory);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			index.directories.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index to a temporary file first, which then replaces
+	 * <code>file</code>, so that an interrupted write never destroys the
+	 * previous index.
+	 */
+	public void save(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		List<Map.Entry<String, Directory>> entries = new ArrayList<Map.Entry<String, Directory>>(
+				directories.entrySet());
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+				new FileOutputStream(tmpFile))));
+		try {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(rootPathA);
+			out.writeUTF(rootPathB);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Directory> entry : entries) {
+				Directory directory = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(directory.size);
+				for (int i = 0; i < directory.size; i++) {
+					Record record = directory.records[i];
+					out.writeUTF(record.name);
+					out.writeLong(record.size);
+					out.writeLong(record.lastModifiedA);
+					out.writeLong(record.lastModifiedB);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete() || !tmpFile.renameTo(file))
+			throw new IOException("Cannot replace snapshot index '" + file.getAbsolutePath() + "'");
+	}
+}
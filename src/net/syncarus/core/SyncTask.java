@@ -3,122 +3,192 @@ package net.syncarus.core;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
-import net.syncarus.gui.SyncView;
 import net.syncarus.model.CancelationException;
 import net.syncarus.model.DiffNode;
 import net.syncarus.model.DiffStatus;
 import net.syncarus.model.SyncException;
+import net.syncarus.rcp.SyncarusPlugin;
 
 import org.apache.commons.io.FileUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.ui.PlatformUI;
 
 /**
  * This job gets all checked nodes from the difference tree and processes them
- * iteratively.
+ * iteratively. The check states are taken from the model, see
+ * {@link DiffNode#getCheckedDescendants()}.
  */
 public class SyncTask extends SyncarusTask {
-	private class GuiRefresher implements Runnable {
-		int messageType = 0;
-		String title;
-		String message;
-		Exception error;
-
-		@Override
-		public void run() {
-			getSyncView().update();
-			switch (messageType) {
-			case 0:
-				MessageDialog.openInformation(null, title, message);
-				break;
-			case 1:
-				getPlugin().logError(message, error);
-				break;
-			case 2:
-				MessageDialog.openWarning(null, title, message);
-				break;
-			}
+	/** files up to this size are copied within batches */
+	static final long SMALL_FILE_SIZE = FileOperation.SMALL_FILE_BUFFER_SIZE;
+
+	/** maximum number of nodes processed within a single batch */
+	private static final int BATCH_SIZE = 256;
+
+	/** younger temporary files may still be written by another synchronisation */
+	private static final long MIN_TEMP_FILE_AGE = 60 * 60 * 1000;
+
+	/**
+	 * Either a single node or a batch of small files of the same directory,
+	 * which is processed at once. The processed nodes are counted, so that
+	 * only these are removed from the tree when processing fails in between.
+	 */
+	static class WorkUnit {
+		final List<DiffNode> nodes = new ArrayList<DiffNode>();
+		final boolean batch;
+		int completed = 0;
+
+		WorkUnit(boolean batch) {
+			this.batch = batch;
+		}
+
+		/**
+		 * removes all processed nodes from the tree
+		 */
+		void removeCompleted() {
+			for (int i = 0; i < completed; i++)
+				nodes.get(i).remove();
 		}
 	}
 
-	private List<DiffNode> diffNodeList = new ArrayList<DiffNode>();
+	private List<DiffNode> diffNodeList;
+
 	private IProgressMonitor monitor = null;
 
 	private long numOfBytesTotal = 0;
 	private long numOfBytesProcessed = 0;
 
-	/**
-	 * @param syncView
-	 * @param name
-	 *            name of the job which will be displayed in the process-view
-	 * @param treeViewer
-	 *            treeViewer of the main-view where the user selects the nodes
-	 *            which should be processed
-	 */
-	public SyncTask(SyncView syncView, List<DiffNode> diffNodes) {
-		super(syncView);
-		diffNodeList.addAll(diffNodes);
+	// set when one of several concurrent file operations failed
+	private volatile boolean aborted = false;
+
+	// collects all copied files, which are known to be equal afterwards
+	private SnapshotIndex snapshot = null;
+
+	public SyncTask(SyncarusPlugin plugin, Observer observer) {
+		super(plugin, observer, "synchronisation");
 	}
 
 	/**
-	 * Collect all checked nodes from the DifferenceTree using a separated
-	 * <code>DiffNodeCollectorThread</code>.<br>
+	 * Collect all checked nodes from the DifferenceTree.<br>
 	 * Then, <code>calcNumOfBytesToCopy(List)</code> will calculate the number
 	 * of bytes to copy. Now, the actual synchronisation is started with
 	 * <code>synchronise(List)</code>.<br>
 	 * This method can be interrupted by an IO-Error or by user-cancellation.
 	 * After such an event, a call to <code>cleanupDiffTree()</code> removes all
 	 * temporary CLEAN-nodes.<br>
-	 * Finally, another separated thread refreshes the DifferenceTree.
+	 * Finally, the observer is informed about the outcome.
 	 * 
 	 * @param monitor
 	 *            this monitor is used to inform the user about the progress
 	 */
 	@Override
 	public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
-		this.monitor = monitor;
-		GuiRefresher guiRefresher = new GuiRefresher();
+		this.monitor = watchCancellation(monitor);
 
 		try {
 			monitor.beginTask("Synchronisation", 1000);
+			diffNodeList = getRootNode().getCheckedDescendants();
 			monitor.subTask("Calculating number bytes to copy");
+			metrics.beginPhase(Metrics.Phase.COUNT_BYTES);
 			calcNumOfBytesToCopy(diffNodeList);
 
 			monitor.subTask("Synchronisation in progress");
+			metrics.beginPhase(Metrics.Phase.LOAD_SNAPSHOT);
+			loadSnapshot();
 			// Synchronise selected nodes and destroy processed nodes afterwards
+			metrics.beginPhase(Metrics.Phase.SYNCHRONISE);
 			synchronize(diffNodeList);
+			deleteTempFiles();
+			metrics.beginPhase(Metrics.Phase.SAVE_SNAPSHOT);
+			saveSnapshot();
 			// now remove CLEAN directories having no children
 			getRootNode().clean();
 			monitor.done();
 
-			guiRefresher.messageType = 0;
-			guiRefresher.title = "Synchronisation completed";
-			guiRefresher.message = "Synchronisation completed.";
+			setOutcome(Outcome.COMPLETED, "Synchronisation completed", "Synchronisation completed.", null);
 		} catch (SyncException e) {
-			guiRefresher.messageType = 1;
-			guiRefresher.title = "Synchronisation Error Occured";
-			guiRefresher.error = e;
-			return;
+			setOutcome(Outcome.FAILED, "Synchronisation Error Occured", e.getMessage(), e);
 		} catch (IOException e) {
-			guiRefresher.messageType = 1;
-			guiRefresher.title = "IO-Error Occured";
-			guiRefresher.error = e;
-			return;
+			setOutcome(Outcome.FAILED, "IO-Error Occured", e.getMessage(), e);
 		} catch (CancelationException e) {
-			guiRefresher.messageType = 2;
-			guiRefresher.title = "Synchronisation Cancelled";
-			guiRefresher.message = "User canceled the Synchronisation process!";
-			return;
+			setOutcome(Outcome.CANCELED, "Synchronisation Cancelled", "User canceled the Synchronisation process!",
+					null);
+		} catch (RuntimeException e) {
+			setOutcome(Outcome.FAILED, "Synchronisation Error Occured", e.getMessage(), e);
 		} finally {
-			PlatformUI.getWorkbench().getDisplay().syncExec(guiRefresher);
-			getSyncView().releaseLock();
+			notifyObserver();
 		}
 	}
 
+	private void loadSnapshot() {
+		if (getSettings().shouldUseSnapshotIndex())
+			snapshot = SnapshotIndex.load(getPlugin().getSnapshotIndexFile(), getRootNode().getAbsolutePathA(),
+					getRootNode().getAbsolutePathB());
+	}
+
+	/**
+	 * Stores the {@link SnapshotIndex} including all copied files. This allows
+	 * the next comparison to skip checksum calculations for these files.
+	 */
+	private void saveSnapshot() {
+		if (snapshot == null)
+			return;
+		try {
+			snapshot.save(getPlugin().getSnapshotIndexFile());
+		} catch (IOException e) {
+			getProtocol().add("Couldn't save the snapshot index: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the temporary files of interrupted copy operations found by the
+	 * last comparison outside of excluded paths. Files which have changed since
+	 * the comparison or which have been modified within the last hour are
+	 * kept, as they may belong to another synchronisation which is still
+	 * running.
+	 */
+	private void deleteTempFiles() {
+		long now = System.currentTimeMillis();
+		for (FileEntry entry : getPlugin().getTempFiles()) {
+			File file = entry.getFile();
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				long lastModified = attributes.lastModifiedTime().toMillis();
+				if (lastModified != entry.getLastModified() || attributes.size() != entry.getSize()
+						|| now - lastModified < MIN_TEMP_FILE_AGE)
+					continue;
+				Files.delete(file.toPath());
+				getProtocol().add("Deleted orphaned temporary file '" + file.getAbsolutePath() + "'");
+			} catch (IOException e) {
+				getProtocol().add("Couldn't delete orphaned temporary file '" + file.getAbsolutePath() + "': "
+						+ e.getMessage());
+			}
+		}
+		getPlugin().setTempFiles(Collections.<FileEntry> emptyList());
+	}
+
+	/**
+	 * Called by {@link FileOperation} whenever a single file has been copied
+	 * completely, including its modification date.
+	 * 
+	 * @param source
+	 *            the copied file
+	 * @param target
+	 *            the copy
+	 */
+	public void fileCopied(File source, File target) {
+		metrics.increment(Metrics.Counter.FILES_COPIED);
+		if (snapshot != null)
+			snapshot.addCopy(source, target);
+	}
+
 	/**
 	 * sum up all bytes which will be copied ignoring TOUCH, CONFLICT and REMOVE
 	 * states
@@ -151,7 +221,8 @@ public class SyncTask extends SyncarusTask {
 
 	/**
 	 * Core-functionality: Process the whole list depending on the state of the
-	 * nodes.
+	 * nodes. Depending on the {@link Settings}, the nodes are either processed
+	 * one after the other or by a {@link ConcurrentSyncExecutor}.
 	 * 
 	 * @param diffNodeList
 	 *            nodes which will be copied / removed / touched etc.
@@ -160,84 +231,333 @@ public class SyncTask extends SyncarusTask {
 	 * @throws CancelationException
 	 */
 	private void synchronize(List<DiffNode> diffNodeList) throws IOException, CancelationException {
+		List<WorkUnit> units = createWorkUnits(diffNodeList);
+		long startTime = System.currentTimeMillis();
+		try {
+			int threads = getSettings().getSyncThreads();
+			if (threads > 1) {
+				new ConcurrentSyncExecutor(this, threads, getSettings().getSyncThreadsPerDevice()).execute(units);
+				return;
+			}
+
+			for (WorkUnit unit : units) {
+				try {
+					process(unit);
+				} finally {
+					unit.removeCompleted();
+				}
+			}
+		} finally {
+			int numOfNodes = 0;
+			for (WorkUnit unit : units)
+				numOfNodes += unit.completed;
+			double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+			getProtocol().add(String.format("Processed %d files and folders in %.1f s (%.0f per second)",
+					numOfNodes, seconds, numOfNodes / seconds));
+		}
+	}
+
+	/**
+	 * Groups all small files of the same directory into batches of up to
+	 * {@link #BATCH_SIZE} nodes; every other node which requires processing
+	 * becomes a work unit of its own. A batch is placed at the position of its
+	 * first node.
+	 */
+	private List<WorkUnit> createWorkUnits(List<DiffNode> diffNodeList) {
+		List<WorkUnit> units = new ArrayList<WorkUnit>();
+		Map<DiffNode, WorkUnit> batches = new IdentityHashMap<DiffNode, WorkUnit>();
 		for (DiffNode node : diffNodeList) {
-			// skip all CLEAN, CONFLICT and UNKNOWN stated nodes
-			if ((node.getStatus() == DiffStatus.CLEAN) || (node.getStatus() == DiffStatus.CONFLICT_TIME)
-					|| (node.getStatus() == DiffStatus.UNKNOWN))
+			if (isSkipped(node))
 				continue;
 
-			File fileA = node.getAbsoluteFileA();
-			File fileB = node.getAbsoluteFileB();
-			// process all other nodes
-			switch (node.getStatus()) {
-			case COPY_TO_A:
-				FileOperation.copy(fileB, fileA, this);
-				node.remove();
-				break;
+			WorkUnit unit;
+			if (isSmallFile(node)) {
+				unit = batches.get(node.getParent());
+				if (unit == null || unit.nodes.size() >= BATCH_SIZE) {
+					unit = new WorkUnit(true);
+					batches.put(node.getParent(), unit);
+					units.add(unit);
+				}
+			} else {
+				unit = new WorkUnit(false);
+				units.add(unit);
+			}
+			unit.nodes.add(node);
+		}
+		return units;
+	}
 
-			case COPY_TO_B:
-				FileOperation.copy(fileA, fileB, this);
-				node.remove();
-				break;
+	/**
+	 * @return <code>true</code> when processing the node only involves a
+	 *         single small file, which can be done within a batch. The sizes
+	 *         are those read by the comparison, see
+	 *         {@link DiffNode#isSmallFile()}. Nodes which were a file/folder
+	 *         conflict are never marked as small files, so a directory is
+	 *         never replaced within a batch.
+	 */
+	private static boolean isSmallFile(DiffNode node) {
+		switch (node.getStatus()) {
+		case COPY_TO_A:
+		case REPLACE_A:
+		case COPY_TO_B:
+		case REPLACE_B:
+			return node.isSmallFile();
+		case TOUCH:
+			return true;
+		case REMOVE_FROM_A:
+		case REMOVE_FROM_B:
+			return !node.isDirectory();
+		default:
+			return false;
+		}
+	}
 
-			case REPLACE_A:
-				FileUtils.forceDelete(fileA);
-				FileOperation.copy(fileB, fileA, this);
-				node.remove();
-				break;
+	/**
+	 * Processes all nodes of a work unit. The nodes aren't removed from the
+	 * tree.
+	 */
+	void process(WorkUnit unit) throws IOException, CancelationException {
+		if (unit.batch) {
+			processBatch(unit);
+			return;
+		}
+		process(unit.nodes.get(0));
+		unit.completed++;
+	}
 
-			case REPLACE_B:
-				FileUtils.forceDelete(fileB);
-				FileOperation.copy(fileA, fileB, this);
-				node.remove();
-				break;
+	/**
+	 * Processes a batch of small files. Files are copied through a reused
+	 * buffer and deleted without further checks. The protocol, the progress
+	 * and the {@link SnapshotIndex} are updated once for the whole batch.
+	 * Files copied before a failure are written to the snapshot and the
+	 * protocol as well.
+	 */
+	private void processBatch(WorkUnit batch) throws IOException, CancelationException {
+		List<File> sources = new ArrayList<File>();
+		List<File> targets = new ArrayList<File>();
+		long numOfBytes = 0;
+		int touched = 0;
+		int deleted = 0;
+		try {
+			for (DiffNode node : batch.nodes) {
+				checkCanceled();
+				File fileA = node.getAbsoluteFileA();
+				File fileB = node.getAbsoluteFileB();
+				switch (node.getStatus()) {
+				case COPY_TO_A:
+				case REPLACE_A:
+					numOfBytes += FileOperation.copySmallFile(fileB, fileA);
+					sources.add(fileB);
+					targets.add(fileA);
+					break;
 
-			// the older file gets the change date of the newer one - same
-			// contents are assumed
-			case TOUCH:
-				if (FileUtils.isFileNewer(fileA, fileB))
-					touchFile(fileB, fileA);
-				else if (FileUtils.isFileNewer(fileB, fileA))
-					touchFile(fileA, fileB);
-				else
-					throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION,
-							"It wasn't necessary to touch a file because both files '" + fileA.getAbsolutePath()
-									+ "' and '" + fileB.getAbsolutePath() + "' have same change-date!");
-				node.remove();
-				break;
+				case COPY_TO_B:
+				case REPLACE_B:
+					numOfBytes += FileOperation.copySmallFile(fileA, fileB);
+					sources.add(fileA);
+					targets.add(fileB);
+					break;
 
-			case REMOVE_FROM_A:
-				getProtocol().add("Deleting '" + fileA.getAbsolutePath() + "'");
-				FileUtils.forceDelete(fileA);
-				node.remove();
-				break;
+				case TOUCH:
+					touch(fileA, fileB, false);
+					touched++;
+					metrics.increment(Metrics.Counter.FILES_TOUCHED);
+					break;
 
-			case REMOVE_FROM_B:
-				getProtocol().add("Deleting '" + fileB.getAbsolutePath() + "'");
-				FileUtils.forceDelete(fileB);
-				node.remove();
-				break;
+				case REMOVE_FROM_A:
+					deleteFile(fileA);
+					deleted++;
+					metrics.increment(Metrics.Counter.FILES_DELETED);
+					break;
+
+				case REMOVE_FROM_B:
+					deleteFile(fileB);
+					deleted++;
+					metrics.increment(Metrics.Counter.FILES_DELETED);
+					break;
 
-			default:
-				throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION, "Unknown state detected("
-						+ node.getStatus() + ")!");
+				default:
+					throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION, "Cannot process node '"
+							+ node.getRelativePath() + "' within a batch (" + node.getStatus() + ")!");
+				}
+				metrics.count(node.getStatus());
+				batch.completed++;
 			}
+		} finally {
+			metrics.add(Metrics.Counter.FILES_COPIED, sources.size());
+			if (snapshot != null && !sources.isEmpty())
+				snapshot.addCopies(sources, targets);
+			if (batch.completed > 0)
+				getProtocol().add("Processed " + batch.completed + " files in '"
+						+ batch.nodes.get(0).getParent().getRelativePath() + "': " + sources.size() + " copied ("
+						+ FileUtils.byteCountToDisplaySize(numOfBytes) + "), " + touched + " touched, " + deleted
+						+ " deleted");
 		}
+		worked(numOfBytes);
+	}
+
+	/**
+	 * deletes a single file, the reason of a failure is only determined when
+	 * deleting failed
+	 */
+	private static void deleteFile(File file) throws IOException {
+		if (!file.delete() && file.exists())
+			FileUtils.forceDelete(file);
+	}
+
+	/**
+	 * both files get the same change date - same contents are assumed
+	 * 
+	 * @param logged
+	 *            whether the file is written to the protocol
+	 */
+	private void touch(File fileA, File fileB, boolean logged) {
+		File oldFile;
+		File newFile;
+		if (FileUtils.isFileNewer(fileA, fileB)) {
+			oldFile = fileB;
+			newFile = fileA;
+		} else if (FileUtils.isFileNewer(fileB, fileA)) {
+			oldFile = fileA;
+			newFile = fileB;
+		} else
+			throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION,
+					"It wasn't necessary to touch a file because both files '" + fileA.getAbsolutePath() + "' and '"
+							+ fileB.getAbsolutePath() + "' have same change-date!");
+
+		if (logged)
+			touchFile(oldFile, newFile);
+		else
+			copyLastModified(oldFile, newFile);
+	}
+
+	/**
+	 * @return <code>true</code> for all CLEAN, CONFLICT and UNKNOWN stated
+	 *         nodes, which don't require any file operation
+	 */
+	static boolean isSkipped(DiffNode node) {
+		return (node.getStatus() == DiffStatus.CLEAN) || (node.getStatus() == DiffStatus.CONFLICT_TIME)
+				|| (node.getStatus() == DiffStatus.UNKNOWN);
+	}
+
+	/**
+	 * Executes the file operation of a single node. The node itself is not
+	 * modified.
+	 * 
+	 * @param node
+	 *            a node which is not skipped, see {@link #isSkipped(DiffNode)}
+	 */
+	void process(DiffNode node) throws IOException, CancelationException {
+		File fileA = node.getAbsoluteFileA();
+		File fileB = node.getAbsoluteFileB();
+		switch (node.getStatus()) {
+		case COPY_TO_A:
+			FileOperation.copy(fileB, fileA, this);
+			break;
+
+		case COPY_TO_B:
+			FileOperation.copy(fileA, fileB, this);
+			break;
+
+		case REPLACE_A:
+			replace(fileB, fileA);
+			break;
+
+		case REPLACE_B:
+			replace(fileA, fileB);
+			break;
+
+		case TOUCH:
+			touch(fileA, fileB, true);
+			metrics.increment(Metrics.Counter.FILES_TOUCHED);
+			break;
+
+		case REMOVE_FROM_A:
+			getProtocol().add("Deleting '" + fileA.getAbsolutePath() + "'");
+			FileUtils.forceDelete(fileA);
+			metrics.increment(Metrics.Counter.FILES_DELETED);
+			break;
+
+		case REMOVE_FROM_B:
+			getProtocol().add("Deleting '" + fileB.getAbsolutePath() + "'");
+			FileUtils.forceDelete(fileB);
+			metrics.increment(Metrics.Counter.FILES_DELETED);
+			break;
+
+		default:
+			throw new SyncException(SyncException.INCONSISTENT_STATE_EXCEPTION, "Unknown state detected("
+					+ node.getStatus() + ")!");
+		}
+		metrics.count(node.getStatus());
+	}
+
+	/**
+	 * Replaces an older file either by a copy or, for large files, by a
+	 * {@link DeltaTransfer} which only writes the changed parts. The copy
+	 * replaces the older file only once it is complete.
+	 */
+	private void replace(File source, File target) throws IOException, CancelationException {
+		long threshold = getSettings().getDeltaThreshold();
+		if (threshold > 0 && source.isFile() && target.isFile() && target.canWrite()
+				&& source.length() >= threshold) {
+			getProtocol().add("Updating file '" + target.getAbsolutePath() + "'");
+			long unchangedBytes = DeltaTransfer.update(source, target, this);
+			long length = target.length();
+			// only literal and moved blocks have been written
+			metrics.add(Metrics.Counter.BYTES_COPIED, length - unchangedBytes);
+			metrics.add(Metrics.Counter.BYTES_UNCHANGED, unchangedBytes);
+			getProtocol().add("Updated file '" + target.getName() + "': "
+					+ FileUtils.byteCountToDisplaySize(unchangedBytes) + " of "
+					+ FileUtils.byteCountToDisplaySize(length) + " unchanged");
+			return;
+		}
+		FileOperation.copy(source, target, this);
+	}
+
+	/**
+	 * Makes all further calls of {@link #worked(long)} throw a
+	 * <code>CancelationException</code>. Used to stop concurrently running
+	 * file operations after one of them failed.
+	 */
+	void abort() {
+		aborted = true;
+	}
+
+	private void checkCanceled() throws CancelationException {
+		if (aborted)
+			throw new CancelationException();
+		if (monitor.isCanceled())
+			throw new CancelationException();
 	}
 
 	/**
 	 * help-function of <code>synchronise(List)</code>.<br>
 	 * Adds numOfBytes to a class-internal counter. This <code>long</code>
 	 * counter will be mapped onto the <code>int</code>-value of the
-	 * monitor.worked() parameter.
+	 * monitor.worked() parameter.<br>
+	 * As file operations may run concurrently, access to the counters and the
+	 * monitor is synchronised.
 	 * 
 	 * @param numOfBytes
 	 *            number of bytes which just have been copied.
 	 * @throws CancelationException
 	 */
 	public void worked(long numOfBytes) throws CancelationException {
-		if (monitor.isCanceled())
-			throw new CancelationException();
+		metrics.add(Metrics.Counter.BYTES_COPIED, numOfBytes);
+		reportProgress(numOfBytes);
+	}
+
+	/**
+	 * Same as {@link #worked(long)}, but the bytes are only counted as
+	 * progress, not as copied. Used by {@link DeltaTransfer}, which reads the
+	 * whole source file but only writes the changed parts.
+	 * 
+	 * @param numOfBytes
+	 *            number of bytes which just have been processed.
+	 * @throws CancelationException
+	 */
+	public synchronized void reportProgress(long numOfBytes) throws CancelationException {
+		checkCanceled();
 
 		numOfBytesProcessed += numOfBytes;
 
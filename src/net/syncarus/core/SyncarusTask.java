@@ -1,29 +1,170 @@
 package net.syncarus.core;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
 
-import net.syncarus.gui.SyncView;
 import net.syncarus.model.DiffNode;
 import net.syncarus.model.SyncException;
 import net.syncarus.rcp.SyncarusPlugin;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 
+/**
+ * Base class of long-running tasks. A task doesn't depend on the workbench: it
+ * records its {@link Outcome} and informs an {@link Observer} when it has
+ * finished, which presents the result to the user.
+ */
 public abstract class SyncarusTask implements IRunnableWithProgress {
-	
-	private SyncView syncView;
-	protected int worked = 0;
+	/**
+	 * Is informed within the thread running the task, after the task has
+	 * finished in any way.
+	 */
+	public static interface Observer {
+		public void taskFinished(SyncarusTask task);
+	}
 
-	public SyncarusTask(SyncView syncView) {
-		this.syncView = syncView;
+	public static enum Outcome {
+		COMPLETED, CANCELED, FAILED
 	}
-	
-	public SyncView getSyncView() {
-		return syncView;
+
+	/** interval in milliseconds in which a watched monitor is checked for a cancellation */
+	private static final long CANCELLATION_CHECK_INTERVAL = 50;
+	private static final Timer CANCELLATION_TIMER = new Timer("Syncarus cancellation watcher", true);
+
+	/**
+	 * Records the time when the cancellation is requested in the
+	 * {@link Metrics}. Workers may not check the monitor for a while, e.g.
+	 * when hashing or copying a large file, so the monitor is also checked
+	 * periodically until the task has finished.
+	 */
+	private class CancellationMonitor extends ProgressMonitorWrapper {
+		private final TimerTask check = new TimerTask() {
+			@Override
+			public void run() {
+				isCanceled();
+			}
+		};
+
+		public CancellationMonitor(IProgressMonitor monitor) {
+			super(monitor);
+			CANCELLATION_TIMER.schedule(check, CANCELLATION_CHECK_INTERVAL, CANCELLATION_CHECK_INTERVAL);
+		}
+
+		@Override
+		public boolean isCanceled() {
+			if (!super.isCanceled())
+				return false;
+			metrics.cancelRequested();
+			check.cancel();
+			return true;
+		}
+
+		@Override
+		public void setCanceled(boolean canceled) {
+			if (canceled)
+				metrics.cancelRequested();
+			super.setCanceled(canceled);
+		}
+	}
+
+	private final SyncarusPlugin plugin;
+	private final Observer observer;
+	protected final Metrics metrics;
+	protected int worked = 0;
+
+	private Outcome outcome = null;
+	private String title = null;
+	private String message = null;
+	private Throwable error = null;
+	private CancellationMonitor cancellationMonitor = null;
+
+	/**
+	 * @param metricsName
+	 *            name of the task within the exported {@link Metrics}
+	 */
+	public SyncarusTask(SyncarusPlugin plugin, Observer observer, String metricsName) {
+		this.plugin = plugin;
+		this.observer = observer;
+		this.metrics = new Metrics(metricsName);
 	}
 	
 	public SyncarusPlugin getPlugin() {
-		return getSyncView().getPlugin();
+		return plugin;
+	}
+
+	/**
+	 * Records the result of the task.
+	 * 
+	 * @param message
+	 *            message to be shown to the user, may be <code>null</code>
+	 * @param error
+	 *            the cause of a failure, may be <code>null</code>
+	 */
+	protected void setOutcome(Outcome outcome, String title, String message, Throwable error) {
+		this.outcome = outcome;
+		this.title = title;
+		this.message = message;
+		this.error = error;
+	}
+
+	/**
+	 * Finishes the {@link Metrics}, exports them if enabled in the
+	 * {@link Settings} and informs the observer.
+	 */
+	protected void notifyObserver() {
+		if (cancellationMonitor != null)
+			cancellationMonitor.check.cancel();
+		metrics.finish();
+		if (getSettings().shouldExportMetrics()) {
+			try {
+				metrics.save(getPlugin().getMetricsFile(metrics.getName()));
+			} catch (IOException e) {
+				getProtocol().add("Couldn't export the metrics: " + e.getMessage());
+			}
+		}
+		observer.taskFinished(this);
+	}
+
+	/**
+	 * Wraps the monitor passed to <code>run()</code>, so that the cancellation
+	 * latency in the {@link Metrics} is measured from the time the user
+	 * requested the cancellation rather than from the time a worker noticed
+	 * it.
+	 */
+	protected IProgressMonitor watchCancellation(IProgressMonitor monitor) {
+		cancellationMonitor = new CancellationMonitor(monitor);
+		return cancellationMonitor;
+	}
+
+	/**
+	 * @return the counters and timers of this task's run
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the result of the task or <code>null</code> when the task hasn't
+	 *         been run
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public Throwable getError() {
+		return error;
 	}
 	
 	public DiffNode getRootNode() {
@@ -39,8 +180,15 @@ public abstract class SyncarusTask implements IRunnableWithProgress {
 	}
 	
 	protected void touchFile(File oldFile, File newFile) {
-		syncView.getProtocol().add("Touching file '" + oldFile.getAbsolutePath() + "'");
+		getProtocol().add("Touching file '" + oldFile.getAbsolutePath() + "'");
+		copyLastModified(oldFile, newFile);
+	}
 
+	/**
+	 * Same as {@link #touchFile(File, File)}, but without writing to the
+	 * protocol.
+	 */
+	protected void copyLastModified(File oldFile, File newFile) {
 		boolean changedWritePerms = false;
 		if (!newFile.canWrite()) {
 			if (!newFile.setWritable(true))
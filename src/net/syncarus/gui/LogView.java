@@ -1,30 +1,58 @@
 package net.syncarus.gui;
 
 import java.text.DateFormat;
-import java.util.Date;
+import java.util.List;
 
 import net.syncarus.action.log.ClearAction;
 import net.syncarus.action.log.SwitchAction;
 import net.syncarus.core.Protocol;
+import net.syncarus.core.ProtocolStore;
 import net.syncarus.rcp.ResourceRegistry;
 import net.syncarus.rcp.SyncarusPlugin;
 
 import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.ui.part.ViewPart;
 
+/**
+ * Displays the entries of the {@link Protocol} in a virtual table. Rows are
+ * only created for visible entries, their content is read on demand from the
+ * {@link ProtocolStore}.<br>
+ * While new entries arrive, the table scrolls to the last entry at most every
+ * {@link #SCROLL_INTERVAL} milliseconds, unless the user has scrolled away
+ * from the end.
+ */
 public class LogView extends ViewPart implements Protocol.ChangeListener {
 	public static final String ID = "net.syncarus.gui.LogView";
+
+	/** minimum time between two automatic scroll operations in milliseconds */
+	private static final int SCROLL_INTERVAL = 250;
+
 	private Table table;
 	private DateFormat dateFormat = DateFormat.getTimeInstance(DateFormat.MEDIUM);
+	private long lastScroll = 0;
+	private boolean scrollScheduled = false;
+
+	private final Runnable scroller = new Runnable() {
+		@Override
+		public void run() {
+			scrollScheduled = false;
+			if (table.isDisposed() || table.getItemCount() == 0)
+				return;
+			lastScroll = System.currentTimeMillis();
+			table.setTopIndex(table.getItemCount() - 1);
+		}
+	};
 
 	@Override
 	public void createPartControl(Composite parent) {
-		table = new Table(parent, SWT.H_SCROLL | SWT.V_SCROLL);
+		table = new Table(parent, SWT.VIRTUAL | SWT.H_SCROLL | SWT.V_SCROLL);
 		table.setHeaderVisible(true);
 		table.setLinesVisible(true);
 		table.setFont(SyncarusPlugin.getInstance().getResourceRegistry().getFont(ResourceRegistry.FONT_8));
@@ -38,6 +66,16 @@ public class LogView extends ViewPart implements Protocol.ChangeListener {
 		textColumn.setWidth(100);
 		textColumn.setMoveable(true);
 
+		table.addListener(SWT.SetData, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				TableItem item = (TableItem) event.item;
+				Protocol.Entry entry = getStore().get(event.index);
+				item.setText(new String[] { dateFormat.format(entry.getTimestamp()), entry.getMessage() });
+			}
+		});
+		table.setItemCount(getStore().size());
+
 		initializeToolBar();
 
 		SyncarusPlugin.getInstance().getProtocol().addListener(this);
@@ -68,15 +106,38 @@ public class LogView extends ViewPart implements Protocol.ChangeListener {
 		super.dispose();
 	}
 
+	private ProtocolStore getStore() {
+		return SyncarusPlugin.getInstance().getProtocol().getStore();
+	}
+
+	/**
+	 * The entries have already been added to the {@link ProtocolStore}, so
+	 * only the number of rows is updated.
+	 */
 	@Override
-	public void newEntry(String message, Date timestamp) {
-		TableItem item = new TableItem(table, SWT.NONE);
-		item.setText(new String[] { dateFormat.format(timestamp), message });
-		table.setSelection(item);
+	public void newEntries(List<Protocol.Entry> entries) {
+		boolean atEnd = isLastRowVisible();
+		table.setItemCount(getStore().size());
+		if (!atEnd || scrollScheduled)
+			return;
+
+		long delay = lastScroll + SCROLL_INTERVAL - System.currentTimeMillis();
+		if (delay > 0) {
+			scrollScheduled = true;
+			table.getDisplay().timerExec((int) delay, scroller);
+		} else
+			scroller.run();
+	}
+
+	private boolean isLastRowVisible() {
+		int itemHeight = Math.max(1, table.getItemHeight());
+		int visibleRows = table.getClientArea().height / itemHeight;
+		return table.getTopIndex() + visibleRows >= table.getItemCount() - 1;
 	}
 
 	@Override
 	public void clear() {
-		table.removeAll();
+		table.setItemCount(0);
+		table.clearAll();
 	}
 }
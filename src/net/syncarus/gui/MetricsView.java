@@ -0,0 +1,141 @@
+package net.syncarus.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.syncarus.core.Metrics;
+import net.syncarus.model.DiffStatus;
+import net.syncarus.rcp.ResourceRegistry;
+import net.syncarus.rcp.SyncarusPlugin;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.ui.part.ViewPart;
+
+/**
+ * Summarises the {@link Metrics} of the last comparison and the last
+ * synchronisation side by side. The view is updated by the {@link SyncView}
+ * whenever a task has finished.
+ */
+public class MetricsView extends ViewPart {
+	public static final String ID = "net.syncarus.gui.MetricsView";
+
+	private static final String COMPARISON = "comparison";
+	private static final String SYNCHRONISATION = "synchronisation";
+
+	private Table table;
+	private Metrics comparison = null;
+	private Metrics synchronisation = null;
+
+	@Override
+	public void createPartControl(Composite parent) {
+		table = new Table(parent, SWT.H_SCROLL | SWT.V_SCROLL);
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		table.setFont(SyncarusPlugin.getInstance().getResourceRegistry().getFont(ResourceRegistry.FONT_8));
+
+		String[] titles = { "Metric", "Comparison", "Synchronisation" };
+		int[] widths = { 160, 100, 100 };
+		for (int i = 0; i < titles.length; i++) {
+			TableColumn column = new TableColumn(table, i == 0 ? SWT.NONE : SWT.RIGHT);
+			column.setText(titles[i]);
+			column.setWidth(widths[i]);
+		}
+		refresh();
+	}
+
+	@Override
+	public void setFocus() {
+		table.setFocus();
+	}
+
+	/**
+	 * Shows the metrics of a finished task in place of the ones of the last
+	 * task of the same kind.
+	 */
+	public void setMetrics(Metrics metrics) {
+		if (metrics.getName().equals(COMPARISON))
+			comparison = metrics;
+		else if (metrics.getName().equals(SYNCHRONISATION))
+			synchronisation = metrics;
+		refresh();
+	}
+
+	private void refresh() {
+		table.removeAll();
+		if (comparison == null && synchronisation == null)
+			return;
+
+		addRow("Duration", formatNanos(comparison == null ? -1 : comparison.getDurationNanos()),
+				formatNanos(synchronisation == null ? -1 : synchronisation.getDurationNanos()));
+		for (Metrics.Phase phase : Metrics.Phase.values())
+			addRow(Metrics.toLabel(phase), formatNanos(comparison == null ? -1 : comparison.getPhaseNanos(phase)),
+					formatNanos(synchronisation == null ? -1 : synchronisation.getPhaseNanos(phase)));
+		addRow("Cancellation latency",
+				formatNanos(comparison == null ? -1 : comparison.getCancellationLatencyNanos()),
+				formatNanos(synchronisation == null ? -1 : synchronisation.getCancellationLatencyNanos()));
+
+		for (Metrics.Counter counter : Metrics.Counter.values()) {
+			boolean bytes = counter.name().startsWith("BYTES_");
+			addRow(Metrics.toLabel(counter), count(comparison, counter, bytes), count(synchronisation, counter,
+					bytes));
+		}
+		addRow("Directories per second", rate(comparison, Metrics.Counter.DIRECTORIES_SCANNED, false), "");
+		addRow("Compared per second", rate(comparison, Metrics.Counter.BYTES_COMPARED, true), "");
+		addRow("Copied per second", "", rate(synchronisation, Metrics.Counter.BYTES_COPIED, true));
+
+		for (DiffStatus status : DiffStatus.values()) {
+			long countA = comparison == null ? 0 : comparison.getCount(status);
+			long countB = synchronisation == null ? 0 : synchronisation.getCount(status);
+			if (countA > 0 || countB > 0)
+				addRow(status.toString(), comparison == null ? "" : String.valueOf(countA),
+						synchronisation == null ? "" : String.valueOf(countB));
+		}
+	}
+
+	/**
+	 * Adds a row unless all values are empty.
+	 */
+	private void addRow(String label, String... values) {
+		List<String> texts = new ArrayList<String>();
+		texts.add(label);
+		boolean empty = true;
+		for (String value : values) {
+			texts.add(value);
+			empty &= value.isEmpty();
+		}
+		if (empty)
+			return;
+		TableItem item = new TableItem(table, SWT.NONE);
+		item.setText(texts.toArray(new String[texts.size()]));
+	}
+
+	/**
+	 * @return an empty string for negative values, i.e. unknown durations
+	 */
+	private static String formatNanos(long nanos) {
+		if (nanos < 0)
+			return "";
+		if (nanos < 10000000000L)
+			return (nanos / 1000000) + " ms";
+		return String.format("%.1f s", nanos / 1e9);
+	}
+
+	private static String count(Metrics metrics, Metrics.Counter counter, boolean bytes) {
+		if (metrics == null)
+			return "";
+		long value = metrics.get(counter);
+		return bytes ? FileUtils.byteCountToDisplaySize(value) : String.valueOf(value);
+	}
+
+	private static String rate(Metrics metrics, Metrics.Counter counter, boolean bytes) {
+		if (metrics == null)
+			return "";
+		double rate = metrics.getRate(counter);
+		return bytes ? FileUtils.byteCountToDisplaySize((long) rate) : String.format("%.0f", rate);
+	}
+}
@@ -1,5 +1,8 @@
 package net.syncarus.gui;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.syncarus.action.ExploreDirectoryAction;
 import net.syncarus.action.tree.FlipCheckStatusAction;
 import net.syncarus.action.tree.SwitchStatusAction;
@@ -12,21 +15,28 @@ import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuListener;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.MenuManager;
-import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.CheckStateChangedEvent;
 import org.eclipse.jface.viewers.CheckboxTreeViewer;
 import org.eclipse.jface.viewers.ICheckStateListener;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
-import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.ICheckStateProvider;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.jface.viewers.Viewer;
-import org.eclipse.jface.viewers.ViewerSorter;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Menu;
 
+/**
+ * Displays the difference tree. The tree is virtual: widgets are only created
+ * for visible rows, which are requested from the model on demand. The
+ * children of every node are displayed in the order of the model, see
+ * {@link DiffNode#sortChildren()}.<br>
+ * As most nodes don't have widgets, the check states are kept in the model,
+ * see {@link DiffNode#isChecked()}. A directory is displayed grayed when only
+ * parts of its subtree are checked.
+ */
 public class SyncTreeViewer extends CheckboxTreeViewer {
 	private Action switchStatusAction;
 	private Action exploreAAction;
@@ -34,37 +44,55 @@ public class SyncTreeViewer extends CheckboxTreeViewer {
 	private Action flipCheckStatusAction;
 
 	/**
-	 * provide the treeViewer with diffNodes
+	 * provide the treeViewer with diffNodes on demand
 	 */
-	private class TreeContentProvider extends ArrayContentProvider implements IStructuredContentProvider,
-			ITreeContentProvider {
+	private class LazyTreeContentProvider implements ILazyTreeContentProvider {
 		@Override
-		public Object[] getElements(Object inputElement) {
-			return getChildren(inputElement);
+		public void updateElement(Object parent, int index) {
+			List<DiffNode> children = ((DiffNode) parent).getChildren();
+			if (index >= children.size())
+				return;
+			DiffNode child = children.get(index);
+			replace(parent, index, child);
+			setChildCount(child, child.getChildren().size());
 		}
 
 		@Override
-		public Object[] getChildren(Object parentElement) {
-			DiffNode node = (DiffNode) parentElement;
+		public void updateChildCount(Object element, int currentChildCount) {
+			int childCount = element == null ? 0 : ((DiffNode) element).getChildren().size();
+			if (childCount != currentChildCount)
+				setChildCount(element, childCount);
+		}
 
-			if (!node.hasChildren())
-				return new Object[0];
+		@Override
+		public Object getParent(Object element) {
+			return ((DiffNode) element).getParent();
+		}
 
-			return node.getChildren().toArray();
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+			// nothing to do, the nodes are accessed directly
 		}
 
 		@Override
-		public Object getParent(Object element) {
-			DiffNode node = (DiffNode) element;
-			if (node.getParent() != null)
-				return node.getParent();
+		public void dispose() {
+			// nothing to dispose
+		}
+	}
 
-			return null;
+	/**
+	 * provides the check states of the tree items when they are created
+	 */
+	private class CheckStateProvider implements ICheckStateProvider {
+		@Override
+		public boolean isChecked(Object element) {
+			DiffNode node = (DiffNode) element;
+			return node.isChecked() || node.hasCheckedDescendants();
 		}
 
 		@Override
-		public boolean hasChildren(Object element) {
-			return ((DiffNode) element).hasChildren();
+		public boolean isGrayed(Object element) {
+			return ((DiffNode) element).isGrayed();
 		}
 	}
 
@@ -151,36 +179,13 @@ public class SyncTreeViewer extends CheckboxTreeViewer {
 		}
 	}
 
-	/**
-	 * sorts treeViewer-content as follows:
-	 * <ul>
-	 * <li>isDirectory()</li>
-	 * <li>node1.compareTo(node2)</li>
-	 * </ul>
-	 */
-	private class Sorter extends ViewerSorter {
-		@Override
-		public int compare(Viewer viewer, Object e1, Object e2) {
-			DiffNode node1 = (DiffNode) e1;
-			DiffNode node2 = (DiffNode) e2;
-			if (node1.isDirectory() != node2.isDirectory()) {
-				// directory comes first!
-				if (node1.isDirectory())
-					return -1;
-
-				return 1;
-			}
-			// else both are files or directories
-			return node1.compareTo(node2);
-		}
-	}
-
 	public SyncTreeViewer(Composite parent) {
-		super(parent, SWT.MULTI | SWT.BORDER);
+		super(parent, SWT.MULTI | SWT.BORDER | SWT.VIRTUAL);
 
+		setUseHashlookup(true);
 		setLabelProvider(new TreeLabelProvider());
-		setContentProvider(new TreeContentProvider());
-		setSorter(new Sorter());
+		setContentProvider(new LazyTreeContentProvider());
+		setCheckStateProvider(new CheckStateProvider());
 		this.getControl().setFont(SyncarusPlugin.getInstance().getResourceRegistry().getFont(ResourceRegistry.FONT_8));
 
 		createActions();
@@ -206,6 +211,53 @@ public class SyncTreeViewer extends CheckboxTreeViewer {
 		});
 	}
 
+	/**
+	 * Checks or unchecks all nodes of the subtree in the model; only existing
+	 * tree items of the subtree and its ancestors are updated.
+	 */
+	@Override
+	public boolean setSubtreeChecked(Object element, boolean state) {
+		((DiffNode) element).setSubtreeChecked(state);
+		refresh(element);
+		updateAncestors((DiffNode) element);
+		return true;
+	}
+
+	@Override
+	public boolean setChecked(Object element, boolean state) {
+		((DiffNode) element).setChecked(state);
+		update(element, null);
+		updateAncestors((DiffNode) element);
+		return true;
+	}
+
+	/**
+	 * updates the check states of all ancestors, which may become grayed
+	 */
+	private void updateAncestors(DiffNode node) {
+		List<DiffNode> ancestors = new ArrayList<DiffNode>();
+		for (DiffNode ancestor = node.getParent(); ancestor != null && ancestor != getInput(); ancestor = ancestor
+				.getParent())
+			ancestors.add(ancestor);
+		update(ancestors.toArray(), null);
+	}
+
+	@Override
+	public boolean getChecked(Object element) {
+		return ((DiffNode) element).isChecked();
+	}
+
+	/**
+	 * @return all checked nodes in depth-first order, parents precede their
+	 *         children
+	 */
+	@Override
+	public Object[] getCheckedElements() {
+		if (getInput() == null)
+			return new Object[0];
+		return ((DiffNode) getInput()).getCheckedDescendants().toArray();
+	}
+
 	/**
 	 * sets a new rootNode in the tree viewer and refreshs the status bar
 	 * @param rootNode 
@@ -4,11 +4,13 @@ import net.syncarus.action.tree.CheckAllAction;
 import net.syncarus.action.tree.CollapseAction;
 import net.syncarus.action.tree.ExpandAction;
 import net.syncarus.core.Protocol;
+import net.syncarus.core.SyncarusTask;
 import net.syncarus.model.SyncException;
 import net.syncarus.rcp.SyncarusPlugin;
 
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
@@ -18,8 +20,10 @@ import org.eclipse.ui.part.ViewPart;
 /**
  * Main view of the application. Consists of a central DifferenceTree, its
  * context-menu and toolbar-actions. <br>
+ * It observes the tasks started by the actions: the tree is refreshed, the
+ * outcome is shown to the user and the lock is released.
  */
-public class SyncView extends ViewPart {
+public class SyncView extends ViewPart implements SyncarusTask.Observer {
 	private SyncTreeViewer viewer;
 	private Action unCheckAllNodesAction;
 	private Action collapseTreeAction;
@@ -86,6 +90,31 @@ public class SyncView extends ViewPart {
 	public void update() {
 		viewer.update(getPlugin().getRootNode());
 	}
+
+	@Override
+	public void taskFinished(final SyncarusTask task) {
+		try {
+			getSite().getShell().getDisplay().syncExec(new Runnable() {
+				@Override
+				public void run() {
+					update();
+					MetricsView metricsView = (MetricsView) getSite().getPage().findView(MetricsView.ID);
+					if (metricsView != null)
+						metricsView.setMetrics(task.getMetrics());
+					if (task.getOutcome() == SyncarusTask.Outcome.FAILED)
+						getPlugin().logError(task.getTitle(), task.getError());
+					else if (task.getMessage() == null)
+						return;
+					else if (task.getOutcome() == SyncarusTask.Outcome.COMPLETED)
+						MessageDialog.openInformation(null, task.getTitle(), task.getMessage());
+					else
+						MessageDialog.openWarning(null, task.getTitle(), task.getMessage());
+				}
+			});
+		} finally {
+			releaseLock();
+		}
+	}
 	
 	/**
 	 * acquire the UI-Lock needed for long-running jobs - there is only one of
@@ -1,96 +1,295 @@
 package net.syncarus.model;
 
 import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
 /**
  * This class is used to build up a tree handling the detected differences
  * between both locations. Differences are encoded using predefined static int
  * codes. The tree consists of DiffNodes which stand for single folders whereas
  * the fileMaps hold (string,int)-pairs which define the files in the folder
- * (relative-path, code).
+ * (relative-path, code).<br>
+ * To keep huge trees in memory, a node only stores its name and a reference
+ * to its parent; paths are built on demand. The status and all flags are
+ * packed into a single byte, and the children array is only allocated when
+ * the first child is added.
  */
 public class DiffNode implements Comparable<DiffNode> {
-	private final DiffNode parent;
-	private final boolean isDirectory;
-	private final boolean fileVsFolderConflict;
-	private final String relativePath;
-	private final List<DiffNode> children = new ArrayList<DiffNode>();
-	private DiffStatus status = DiffStatus.UNKNOWN;
+	/**
+	 * order of the children as displayed: directories first, then
+	 * case-insensitive by name
+	 */
+	private static final Comparator<DiffNode> CHILD_ORDER = new Comparator<DiffNode>() {
+		@Override
+		public int compare(DiffNode node1, DiffNode node2) {
+			boolean isDirectory1 = node1.isDirectory();
+			if (isDirectory1 != node2.isDirectory())
+				return isDirectory1 ? -1 : 1;
+			return node1.name.compareToIgnoreCase(node2.name);
+		}
+	};
+
+	private static final DiffNode[] NO_CHILDREN = new DiffNode[0];
+	private static final DiffStatus[] STATUSES = DiffStatus.values();
+
+	// the lower bits of the packed byte hold the ordinal of the status
+	private static final int STATUS_MASK = 0x0f;
+	private static final byte FLAG_CHECKED = 0x10;
+	private static final byte FLAG_DIRECTORY = 0x20;
+	private static final byte FLAG_FILE_FOLDER_CONFLICT = 0x40;
+	private static final byte FLAG_SMALL_FILE = (byte) 0x80;
+
+	/**
+	 * The root node is the only node which knows the absolute paths of both
+	 * locations, all other paths are built on demand.
+	 */
+	private static class RootNode extends DiffNode {
+		private final String absolutePathA;
+		private final String absolutePathB;
+
+		RootNode(String absolutePathA, String absolutePathB) {
+			super(null, "", true, DiffStatus.UNKNOWN);
+			this.absolutePathA = absolutePathA;
+			this.absolutePathB = absolutePathB;
+		}
+	}
 
-	// is determined when required
-	private DiffNode root;
-	private String absolutePathA;
-	private String absolutePathB;
+	/** children of directories with more children are looked up by an index of their names */
+	private static final int INDEX_THRESHOLD = 32;
+
+	/**
+	 * Bookkeeping of a directory whose children are being removed. It only
+	 * exists between the first removal and the next compaction.
+	 */
+	private static class ChildIndex {
+		// slot of every child by name, built on the first lookup in large directories
+		Map<String, Integer> slots;
+		// number of slots of removed children which haven't been compacted yet
+		int numOfTombstones;
+	}
 
 	/**
-	 * Constructor is used to initialise root-Nodes without parents
+	 * read-only view of the children array skipping removed children. Children
+	 * may be removed while iterating over this list. Until removed children
+	 * have been compacted, accessing a child by index starts from the child
+	 * accessed last through the same view, so accessing the children in order
+	 * takes linear time. Each call of {@link DiffNode#getChildren()} creates
+	 * a new view, so threads never share a cursor.
 	 */
-	public DiffNode(String rootPathA, String rootPathB) {
-		this(new File(rootPathA), new File(rootPathB));
+	private class ChildList extends AbstractList<DiffNode> implements RandomAccess {
+		// the last child accessed by index, valid as long as no further child has been removed
+		private ChildIndex cursorOwner = null;
+		private int cursorTombstones = 0;
+		private int cursorIndex = -1;
+		private int cursorSlot = -1;
+
+		@Override
+		public DiffNode get(int index) {
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException(index + " >= " + size());
+			ChildIndex childIndex = DiffNode.this.index;
+			if (childIndex == null || childIndex.numOfTombstones == 0)
+				return children[index];
+
+			int slot = cursorSlot;
+			int current = cursorIndex;
+			if (cursorOwner != childIndex || cursorTombstones != childIndex.numOfTombstones || current > index) {
+				slot = -1;
+				current = -1;
+			}
+			while (current < index)
+				if (children[++slot] != null)
+					current++;
+			cursorOwner = childIndex;
+			cursorTombstones = childIndex.numOfTombstones;
+			cursorIndex = current;
+			cursorSlot = slot;
+			return children[slot];
+		}
+
+		@Override
+		public int size() {
+			return numOfSlots - getNumOfTombstones();
+		}
+
+		@Override
+		public Iterator<DiffNode> iterator() {
+			return new Iterator<DiffNode>() {
+				private int slot = 0;
+
+				@Override
+				public boolean hasNext() {
+					while (slot < numOfSlots && children[slot] == null)
+						slot++;
+					return slot < numOfSlots;
+				}
+
+				@Override
+				public DiffNode next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return children[slot++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
 	}
 
-	public DiffNode(File rootPathA, File rootPathB) {
-		parent = null;
-		isDirectory = true;
-		fileVsFolderConflict = false;
-		relativePath = File.separator;
+	private final DiffNode parent;
+	private final String name;
+	private DiffNode[] children = NO_CHILDREN;
+	// number of used slots of the children array including tombstones
+	private int numOfSlots = 0;
+	private ChildIndex index = null;
+	private byte bits;
+
+	// aggregated over the subtree, valid after updateCounts()
+	private int numOfDescendants = 0;
+	private int numOfCheckedDescendants = 0;
 
+	/**
+	 * Creates the root node of a new tree.
+	 */
+	public static DiffNode createRoot(String rootPathA, String rootPathB) {
+		return createRoot(new File(rootPathA), new File(rootPathB));
+	}
+
+	/**
+	 * Creates the root node of a new tree.
+	 */
+	public static DiffNode createRoot(File rootPathA, File rootPathB) {
 		if (!rootPathA.isDirectory() || !rootPathA.canWrite())
 			throw new SyncException(SyncException.PATH_EXCEPTION, "Location A does not exist or is not writable.");
 
 		if (!rootPathB.isDirectory() || !rootPathB.canWrite())
 			throw new SyncException(SyncException.PATH_EXCEPTION, "Location B does not exist or is not writable.");
 
-		absolutePathA = rootPathA.getAbsolutePath();
+		String absolutePathA = rootPathA.getAbsolutePath();
 		if (absolutePathA.endsWith(File.separator)) // remove trailing '/'
 			absolutePathA = absolutePathA.substring(0, absolutePathA.length() - 1);
 
-		absolutePathB = rootPathB.getAbsolutePath();
+		String absolutePathB = rootPathB.getAbsolutePath();
 		if (absolutePathB.endsWith(File.separator))
 			absolutePathB = absolutePathB.substring(0, absolutePathB.length() - 1);
 
+		return new RootNode(absolutePathA, absolutePathB);
 	}
 
 	/**
-	 * @param relativePath
-	 *            relative path of this node
-	 * @param parent
-	 *            the parent node; nodes in this tree are connected
-	 *            bi-directional
+	 * @param child
+	 *            a file within the directory of this node, either in
+	 *            location A or B
 	 * @param status
-	 *            status code belonging to this node
+	 *            status code belonging to the child node
 	 */
 	public DiffNode createChildNode(File child, DiffStatus status) {
-		String relativePath;
-		if (child.getAbsolutePath().startsWith(getRootPathA()))
-			relativePath = child.getAbsolutePath().substring(getRootPathA().length());
-		else if (child.getAbsolutePath().startsWith(getRootPathB()))
-			relativePath = child.getAbsolutePath().substring(getRootPathB().length());
-		else
-			throw new IllegalArgumentException("Cannot create child " + child.getAbsolutePath() + " of node " + this);
-			
-		return new DiffNode(this, child.isDirectory(), relativePath, status);
+		return createChildNode(child.getName(), child.isDirectory(), status);
+	}
+
+	/**
+	 * Creates a child node without accessing the file system.
+	 * 
+	 * @param name
+	 *            name of the file/folder within the directory of this node
+	 * @param isDirectory
+	 *            whether the child is a directory
+	 * @param status
+	 *            status code belonging to the child node
+	 */
+	public DiffNode createChildNode(String name, boolean isDirectory, DiffStatus status) {
+		return new DiffNode(this, name, isDirectory, status);
 	}
 
 	/**
 	 * Constructor is used to initialise child-Nodes having parents for private
 	 * use only
 	 */
-	private DiffNode(DiffNode parent, boolean isDirectory, String relativePath, DiffStatus status) {
+	private DiffNode(DiffNode parent, String name, boolean isDirectory, DiffStatus status) {
 		this.parent = parent;
-		this.isDirectory = isDirectory;
-		this.relativePath = relativePath;
-		this.status = status;
-		this.fileVsFolderConflict = status == DiffStatus.CONFLICT_FILEFOLDER;
+		this.name = name;
+		setStatus(status);
+		if (isDirectory)
+			bits |= FLAG_DIRECTORY;
+		if (status == DiffStatus.CONFLICT_FILEFOLDER)
+			bits |= FLAG_FILE_FOLDER_CONFLICT;
 
 		if (this.parent != null)
 			parent.addChildNode(this);
 	}
 
 	private void addChildNode(DiffNode child) {
-		children.add(child);
+		if (numOfSlots == children.length)
+			children = Arrays.copyOf(children, Math.max(4, numOfSlots + (numOfSlots >> 1)));
+		if (index != null && index.slots != null)
+			index.slots.put(child.name, numOfSlots);
+		children[numOfSlots++] = child;
+	}
+
+	private void buildIndex() {
+		index.slots = new HashMap<String, Integer>(numOfSlots * 2);
+		for (int slot = 0; slot < numOfSlots; slot++)
+			if (children[slot] != null)
+				index.slots.put(children[slot].name, slot);
+	}
+
+	private int getNumOfTombstones() {
+		return index == null ? 0 : index.numOfTombstones;
+	}
+
+	/**
+	 * Looks up the slot of a child which is about to be removed. In large
+	 * directories, the first lookup builds an index of the children's names,
+	 * so that removing all children takes linear time. The index is dropped
+	 * by the next compaction.
+	 * 
+	 * @return the slot of the child with the given name or <code>-1</code>
+	 */
+	private int getSlotForRemoval(String childName) {
+		if (index == null)
+			index = new ChildIndex();
+		if (index.slots == null && numOfSlots > INDEX_THRESHOLD)
+			buildIndex();
+		if (index.slots != null) {
+			Integer slot = index.slots.get(childName);
+			return slot == null ? -1 : slot;
+		}
+		for (int slot = 0; slot < numOfSlots; slot++)
+			if (children[slot] != null && children[slot].name.equals(childName))
+				return slot;
+		return -1;
+	}
+
+	/**
+	 * Removes the slots of removed children from the children array. Removing
+	 * a child only leaves an empty slot behind, so removing many children
+	 * followed by a single compaction takes linear time.
+	 */
+	public void compactChildren() {
+		if (index == null)
+			return;
+		int numOfChildren = 0;
+		for (int slot = 0; slot < numOfSlots; slot++)
+			if (children[slot] != null)
+				children[numOfChildren++] = children[slot];
+		Arrays.fill(children, numOfChildren, numOfSlots, null);
+		numOfSlots = numOfChildren;
+		if (numOfSlots == 0)
+			children = NO_CHILDREN;
+
+		index = null;
 	}
 
 	/**
@@ -98,9 +297,9 @@ public class DiffNode implements Comparable<DiffNode> {
 	 *         state) is a directory
 	 */
 	public boolean isDirectory() {
-		if (!fileVsFolderConflict)
-			return isDirectory;
-		switch (status) {
+		if ((bits & FLAG_FILE_FOLDER_CONFLICT) == 0)
+			return (bits & FLAG_DIRECTORY) != 0;
+		switch (getStatus()) {
 			case REPLACE_A:
 			case CONFLICT_FILEFOLDER:
 				return getAbsoluteFileA().isDirectory();
@@ -118,27 +317,152 @@ public class DiffNode implements Comparable<DiffNode> {
 	 * @param child
 	 */
 	public void removeChildNode(DiffNode child) {
-		if (children == null)
-			throw new SyncException(SyncException.DATA_STRUCTURE_EXCEPTION,
-					"Cannot remove a child when there's no list to remove it from!");
-
-		if (!children.remove(child))
+		int slot = getSlotForRemoval(child.name);
+		if (slot < 0 || children[slot] != child)
 			throw new SyncException(SyncException.DATA_STRUCTURE_EXCEPTION, "Child removal failed because child '"
-					+ child.relativePath + "' couldn't be found in list!");
+					+ child.getRelativePath() + "' couldn't be found in list!");
+
+		children[slot] = null;
+		if (index.slots != null)
+			index.slots.remove(child.name);
+		index.numOfTombstones++;
 	}
 
 	/**
-	 * Calls {@link #removeChildNode(DiffNode)} on this node's parent.
+	 * Calls {@link #removeChildNode(DiffNode)} on this node's parent and
+	 * updates the aggregated counts of all ancestors.
 	 */
 	public void remove() {
 		parent.removeChildNode(this);
+		int numOfChecked = getNumOfChecked();
+		for (DiffNode node = parent; node != null; node = node.parent) {
+			node.numOfDescendants -= numOfDescendants + 1;
+			node.numOfCheckedDescendants -= numOfChecked;
+		}
+	}
+
+	/**
+	 * Recomputes the number of descendants and checked descendants of all
+	 * nodes in this subtree. Has to be called once after the tree has been
+	 * built, later modifications keep the counts up to date.
+	 */
+	public void updateCounts() {
+		numOfDescendants = 0;
+		numOfCheckedDescendants = 0;
+		for (DiffNode child : getChildren()) {
+			child.updateCounts();
+			numOfDescendants += child.numOfDescendants + 1;
+			numOfCheckedDescendants += child.getNumOfChecked();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> when this node itself is checked
+	 */
+	public boolean isChecked() {
+		return (bits & FLAG_CHECKED) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> when the comparison found this node to be a
+	 *         small file on both sides, so it may be synchronised within a
+	 *         batch
+	 */
+	public boolean isSmallFile() {
+		return (bits & FLAG_SMALL_FILE) != 0;
+	}
+
+	/**
+	 * Marks this node as a file which is small enough to be synchronised
+	 * within a batch. Only files are marked, see {@link #isSmallFile()}.
+	 */
+	public void setSmallFile() {
+		bits |= FLAG_SMALL_FILE;
+	}
+
+	/**
+	 * @return <code>true</code> when some but not all nodes of this subtree
+	 *         are checked
+	 */
+	public boolean isGrayed() {
+		int numOfChecked = getNumOfChecked();
+		return numOfChecked > 0 && numOfChecked <= numOfDescendants;
+	}
+
+	/**
+	 * @return <code>true</code> when at least one descendant of this node is
+	 *         checked
+	 */
+	public boolean hasCheckedDescendants() {
+		return numOfCheckedDescendants > 0;
+	}
+
+	/**
+	 * @return number of checked nodes in this subtree including this node
+	 */
+	private int getNumOfChecked() {
+		return numOfCheckedDescendants + (isChecked() ? 1 : 0);
+	}
+
+	/**
+	 * Checks or unchecks this node only.
+	 */
+	public void setChecked(boolean checked) {
+		if (checked == isChecked())
+			return;
+		bits ^= FLAG_CHECKED;
+		int delta = checked ? 1 : -1;
+		for (DiffNode node = parent; node != null; node = node.parent)
+			node.numOfCheckedDescendants += delta;
+	}
+
+	/**
+	 * Checks or unchecks this node and all of its descendants. Only the
+	 * ancestors' counts are updated, so the cost is linear in the size of the
+	 * subtree plus the depth of this node.
+	 */
+	public void setSubtreeChecked(boolean checked) {
+		int delta = -getNumOfChecked();
+		markSubtree(checked);
+		delta += getNumOfChecked();
+		for (DiffNode node = parent; node != null; node = node.parent)
+			node.numOfCheckedDescendants += delta;
+	}
+
+	private void markSubtree(boolean checked) {
+		if (checked)
+			bits |= FLAG_CHECKED;
+		else
+			bits &= ~FLAG_CHECKED;
+		numOfCheckedDescendants = checked ? numOfDescendants : 0;
+		for (DiffNode child : getChildren())
+			child.markSubtree(checked);
+	}
+
+	/**
+	 * @return all checked descendants of this node in depth-first order,
+	 *         parents precede their children
+	 */
+	public List<DiffNode> getCheckedDescendants() {
+		List<DiffNode> checked = new ArrayList<DiffNode>(numOfCheckedDescendants);
+		collectCheckedDescendants(checked);
+		return checked;
+	}
+
+	private void collectCheckedDescendants(List<DiffNode> checked) {
+		for (DiffNode child : getChildren()) {
+			if (child.isChecked())
+				checked.add(child);
+			if (child.hasCheckedDescendants())
+				child.collectCheckedDescendants(checked);
+		}
 	}
 
 	/**
 	 * @return status of this DiffNode
 	 */
 	public DiffStatus getStatus() {
-		return status;
+		return STATUSES[bits & STATUS_MASK];
 	}
 
 	/**
@@ -149,7 +473,7 @@ public class DiffNode implements Comparable<DiffNode> {
 			return 0;
 
 		long sum = 0;
-		for (DiffNode subNode : children)
+		for (DiffNode subNode : getChildren())
 			sum = sum + subNode.countChildren() + 1;
 		return sum;
 	}
@@ -158,10 +482,21 @@ public class DiffNode implements Comparable<DiffNode> {
 	 * @return all subNodes of this node - at least an empty set
 	 */
 	public List<DiffNode> getChildren() {
-		if (children == null)
-			return new ArrayList<DiffNode>();
+		return new ChildList();
+	}
 
-		return children;
+	/**
+	 * Recursively sorts the children of this node, directories first and then
+	 * by name. Viewers display the children in this order without sorting
+	 * them again. Unused capacity of the children arrays is released.
+	 */
+	public void sortChildren() {
+		compactChildren();
+		if (numOfSlots < children.length)
+			children = numOfSlots == 0 ? NO_CHILDREN : Arrays.copyOf(children, numOfSlots);
+		Arrays.sort(children, CHILD_ORDER);
+		for (DiffNode child : children)
+			child.sortChildren();
 	}
 
 	/**
@@ -176,12 +511,10 @@ public class DiffNode implements Comparable<DiffNode> {
 	 * @return true, when this node was deleted, else false
 	 */
 	public boolean clean() {
-		// important: childNode.selfDestruction() also removes itself from list
-		// -> index has to decremented
-		if (hasChildren())
-			for (int i = 0; i < getChildren().size(); i++)
-				if (getChildren().get(i).clean())
-					i--;
+		// removed children leave empty slots, which are compacted at once
+		for (DiffNode child : getChildren())
+			child.clean();
+		compactChildren();
 
 		// if node has no children (this may happen after recursion step) and it
 		// is clean, remove it
@@ -195,11 +528,11 @@ public class DiffNode implements Comparable<DiffNode> {
 	@Override
 	public String toString() {
 		String temp = "DiffNode: <";
-		if (isDirectory)
+		if ((bits & FLAG_DIRECTORY) != 0)
 			temp += "DIR";
 		else
 			temp += "FILE";
-		temp += "> " + relativePath + " " + status;
+		temp += "> " + getRelativePath() + " " + getStatus();
 		return temp;
 	}
 
@@ -207,31 +540,37 @@ public class DiffNode implements Comparable<DiffNode> {
 	 * @return true if this node has children, else false
 	 */
 	public boolean hasChildren() {
-		if (children == null)
-			return false;
-		return children.size() != 0;
+		return numOfSlots > getNumOfTombstones();
 	}
 
 	/**
-	 * @return the relative path of this node in the diffTree
+	 * @return the relative path of this node in the diffTree, which is built
+	 *         from the names of all ancestors
 	 */
 	public String getRelativePath() {
-		return relativePath;
+		if (parent == null)
+			return File.separator;
+		StringBuilder path = new StringBuilder(64);
+		appendRelativePath(path);
+		return path.toString();
+	}
+
+	private void appendRelativePath(StringBuilder path) {
+		if (parent == null)
+			return;
+		parent.appendRelativePath(path);
+		path.append(File.separatorChar).append(name);
 	}
 
 	/**
-	 * @return the String after the last occurrence of '/' in the relative path
+	 * @return the name of the file/folder, an empty String for the root node
 	 */
 	public String getName() {
-		int lastOcc = relativePath.lastIndexOf(File.separator);
-		if (lastOcc >= relativePath.length() - 1)
-			return "";
-
-		return relativePath.substring(lastOcc + 1);
+		return name;
 	}
 
 	public void setStatus(DiffStatus status) {
-		this.status = status;
+		bits = (byte) ((bits & ~STATUS_MASK) | status.ordinal());
 	}
 
 	/**
@@ -242,41 +581,34 @@ public class DiffNode implements Comparable<DiffNode> {
 	 */
 	@Override
 	public int compareTo(DiffNode other) {
-		return relativePath.compareToIgnoreCase(other.getRelativePath());
+		return getRelativePath().compareToIgnoreCase(other.getRelativePath());
 	}
 
-	private DiffNode getRoot() {
-		if (root == null) {
-			DiffNode node = this;
-			while (node.parent != null)
-				node = node.parent;
-			root = node;
-		}
-		return root;
+	private RootNode getRoot() {
+		DiffNode node = this;
+		while (node.parent != null)
+			node = node.parent;
+		return (RootNode) node;
 	}
 	
 	public String getRootPathA() {
-		if (getRoot().getAbsolutePathA() == null)
-			throw new IllegalStateException("The absolute path A of the root node is not set.");
-		return getRoot().getAbsolutePathA();
+		return getRoot().absolutePathA;
 	}
 	
 	public String getRootPathB() {
-		if (getRoot().getAbsolutePathB() == null)
-			throw new IllegalStateException("The absolute path B of the root node is not set.");
-		return getRoot().getAbsolutePathB();
+		return getRoot().absolutePathB;
 	}
 
 	public String getAbsolutePathA() {
-		if (absolutePathA == null)
-			absolutePathA = getRootPathA() + relativePath;
-		return absolutePathA;
+		StringBuilder path = new StringBuilder(getRootPathA());
+		appendRelativePath(path);
+		return path.toString();
 	}
 
 	public String getAbsolutePathB() {
-		if (absolutePathB == null)
-			absolutePathB = getRootPathB() + relativePath;
-		return absolutePathB;
+		StringBuilder path = new StringBuilder(getRootPathB());
+		appendRelativePath(path);
+		return path.toString();
 	}
 
 	public File getAbsoluteFileA() {
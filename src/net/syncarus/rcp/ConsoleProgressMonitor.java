@@ -0,0 +1,95 @@
+package net.syncarus.rcp;
+
+import java.io.PrintStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Reports the progress of a task as lines of text, used when running without
+ * a display. A line is printed whenever the task or sub-task changes and at
+ * most once per {@link #REPORT_INTERVAL} milliseconds otherwise.
+ */
+public class ConsoleProgressMonitor implements IProgressMonitor {
+	private static final long REPORT_INTERVAL = 1000;
+
+	private final PrintStream out;
+	private volatile boolean canceled = false;
+
+	private String taskName = "";
+	private String subTaskName = "";
+	private double totalWork = UNKNOWN;
+	private double work = 0;
+	private int reportedPercent = -1;
+	private long lastReport = 0;
+
+	/**
+	 * @param out
+	 *            stream the progress is written to
+	 */
+	public ConsoleProgressMonitor(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public synchronized void beginTask(String name, int totalWork) {
+		this.taskName = name;
+		this.totalWork = totalWork;
+		this.work = 0;
+		report(true);
+	}
+
+	@Override
+	public synchronized void done() {
+		if (totalWork != UNKNOWN)
+			work = totalWork;
+		report(true);
+	}
+
+	@Override
+	public synchronized void internalWorked(double work) {
+		this.work += work;
+		report(false);
+	}
+
+	@Override
+	public void worked(int work) {
+		internalWorked(work);
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	@Override
+	public void setCanceled(boolean canceled) {
+		this.canceled = canceled;
+	}
+
+	@Override
+	public synchronized void setTaskName(String name) {
+		taskName = name;
+		report(true);
+	}
+
+	@Override
+	public synchronized void subTask(String name) {
+		subTaskName = name;
+		report(true);
+	}
+
+	private void report(boolean force) {
+		int percent = totalWork > 0 ? (int) Math.min(100, work * 100 / totalWork) : -1;
+		long now = System.currentTimeMillis();
+		if (!force && (percent == reportedPercent || now - lastReport < REPORT_INTERVAL))
+			return;
+
+		reportedPercent = percent;
+		lastReport = now;
+		String progress = percent < 0 ? "[    ]" : String.format("[%3d%%]", percent);
+		if (subTaskName.isEmpty())
+			out.println(progress + " " + taskName);
+		else
+			out.println(progress + " " + taskName + ": " + subTaskName);
+	}
+}
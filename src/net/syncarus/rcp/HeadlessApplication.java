@@ -0,0 +1,239 @@
+package net.syncarus.rcp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+
+import net.syncarus.core.DiffTask;
+import net.syncarus.core.SyncTask;
+import net.syncarus.core.SyncarusTask;
+import net.syncarus.model.DiffNode;
+import net.syncarus.model.DiffStatus;
+import net.syncarus.model.SyncException;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+/**
+ * Compares and optionally synchronises two locations without a display,
+ * e.g. from cron jobs:
+ *
+ * <pre>
+ * syncarus -application net.syncarus.headless -a DIR -b DIR [--sync] [--summary FILE] [--verbose]
+ * </pre>
+ *
+ * The settings of the preference pages apply. With <code>--sync</code>, all
+ * differences except conflicts are applied, just as if all of them had been
+ * checked in the comparison tree. Progress is written to standard error, a
+ * summary in JSON format to standard output or to the given file. The exit
+ * code tells whether differences remain, see the <code>EXIT_*</code>
+ * constants.
+ */
+public class HeadlessApplication implements IApplication, SyncarusTask.Observer {
+	/** no differences have been found or all of them have been applied */
+	public static final int EXIT_NO_DIFFERENCES = 0;
+	/** differences have been found, which haven't been applied */
+	public static final int EXIT_DIFFERENCES = 1;
+	/** the comparison or synchronisation failed */
+	public static final int EXIT_FAILED = 2;
+	/** the run has been cancelled */
+	public static final int EXIT_CANCELED = 3;
+	/** invalid command line arguments */
+	public static final int EXIT_USAGE = 64;
+
+	private static final String USAGE = "Usage: -a DIR -b DIR [--sync] [--summary FILE] [--verbose]";
+
+	private final ConsoleProgressMonitor monitor = new ConsoleProgressMonitor(System.err);
+
+	private File locationA = null;
+	private File locationB = null;
+	private boolean sync = false;
+	private File summaryFile = null;
+	private boolean verbose = false;
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		if (!parseArguments(args == null ? new String[0] : args)) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		SyncarusPlugin plugin = SyncarusPlugin.getInstance();
+		plugin.getProtocol().setHeadless(verbose ? System.err : null);
+		plugin.initSettings();
+		try {
+			plugin.initialize(locationA, locationB);
+		} catch (SyncException e) {
+			System.err.println(e.getMessage());
+			return EXIT_USAGE;
+		}
+
+		StringBuilder summary = new StringBuilder();
+		summary.append("{\n");
+		appendField(summary, "locationA", plugin.getRootNode().getAbsolutePathA());
+		appendField(summary, "locationB", plugin.getRootNode().getAbsolutePathB());
+
+		DiffTask diffTask = new DiffTask(plugin, this);
+		long startTime = System.currentTimeMillis();
+		diffTask.run(monitor);
+		appendTask(summary, "comparison", diffTask, System.currentTimeMillis() - startTime);
+		int exitCode = getExitCode(diffTask);
+
+		if (sync && exitCode == EXIT_DIFFERENCES) {
+			checkApplicableNodes(plugin.getRootNode());
+			SyncTask syncTask = new SyncTask(plugin, this);
+			startTime = System.currentTimeMillis();
+			syncTask.run(monitor);
+			appendTask(summary, "synchronisation", syncTask, System.currentTimeMillis() - startTime);
+			exitCode = getExitCode(syncTask);
+		}
+
+		appendDifferences(summary, plugin.getRootNode());
+		summary.append("  \"exitCode\": ").append(exitCode).append("\n}\n");
+		writeSummary(summary.toString());
+		return exitCode;
+	}
+
+	@Override
+	public void stop() {
+		monitor.setCanceled(true);
+	}
+
+	@Override
+	public void taskFinished(SyncarusTask task) {
+		if (task.getOutcome() == SyncarusTask.Outcome.FAILED)
+			System.err.println(task.getTitle() + ": " + task.getMessage());
+		else if (task.getMessage() != null)
+			System.err.println(task.getMessage());
+	}
+
+	private boolean parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			boolean hasValue = i + 1 < args.length;
+			if (arg.equals("-a") && hasValue)
+				locationA = new File(args[++i]);
+			else if (arg.equals("-b") && hasValue)
+				locationB = new File(args[++i]);
+			else if (arg.equals("--summary") && hasValue)
+				summaryFile = new File(args[++i]);
+			else if (arg.equals("--sync"))
+				sync = true;
+			else if (arg.equals("--verbose"))
+				verbose = true;
+			else
+				return false;
+		}
+		return locationA != null && locationB != null;
+	}
+
+	/**
+	 * @return the exit code after <code>task</code>, which only reflects
+	 *         remaining differences when the task has been completed
+	 */
+	private int getExitCode(SyncarusTask task) {
+		switch (task.getOutcome()) {
+		case COMPLETED:
+			return task.getPlugin().getRootNode().hasChildren() ? EXIT_DIFFERENCES : EXIT_NO_DIFFERENCES;
+		case CANCELED:
+			return EXIT_CANCELED;
+		default:
+			return EXIT_FAILED;
+		}
+	}
+
+	/**
+	 * Checks all nodes which can be synchronised without a decision of the
+	 * user, i.e. all nodes except conflicts.
+	 */
+	private static void checkApplicableNodes(DiffNode rootNode) {
+		Deque<DiffNode> stack = new ArrayDeque<DiffNode>(rootNode.getChildren());
+		while (!stack.isEmpty()) {
+			DiffNode node = stack.pop();
+			switch (node.getStatus()) {
+			case CLEAN:
+				for (DiffNode child : node.getChildren())
+					stack.push(child);
+				break;
+			case UNKNOWN:
+			case CONFLICT_TIME:
+			case CONFLICT_FILEFOLDER:
+				break;
+			default:
+				node.setChecked(true);
+			}
+		}
+	}
+
+	private static void appendTask(StringBuilder summary, String name, SyncarusTask task, long duration) {
+		summary.append("  \"").append(name).append("\": {\n");
+		summary.append("    \"outcome\": \"").append(task.getOutcome()).append("\",\n");
+		if (task.getOutcome() == SyncarusTask.Outcome.FAILED)
+			summary.append("    \"error\": ").append(quote(String.valueOf(task.getMessage()))).append(",\n");
+		summary.append("    \"durationMillis\": ").append(duration).append(",\n");
+		String metrics = task.getMetrics().toJson().trim().replace("\n", "\n    ");
+		summary.append("    \"metrics\": ").append(metrics).append("\n  },\n");
+	}
+
+	/**
+	 * Appends the number of remaining differences per status.
+	 */
+	private static void appendDifferences(StringBuilder summary, DiffNode rootNode) {
+		Map<DiffStatus, Integer> counts = new EnumMap<DiffStatus, Integer>(DiffStatus.class);
+		Deque<DiffNode> stack = new ArrayDeque<DiffNode>(rootNode.getChildren());
+		int total = 0;
+		while (!stack.isEmpty()) {
+			DiffNode node = stack.pop();
+			if (node.getStatus() == DiffStatus.CLEAN) {
+				stack.addAll(node.getChildren());
+				continue;
+			}
+			Integer count = counts.get(node.getStatus());
+			counts.put(node.getStatus(), count == null ? 1 : count + 1);
+			total++;
+		}
+
+		summary.append("  \"differences\": {\n");
+		for (Map.Entry<DiffStatus, Integer> entry : counts.entrySet())
+			summary.append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue()).append(",\n");
+		summary.append("    \"total\": ").append(total).append("\n  },\n");
+	}
+
+	private static void appendField(StringBuilder summary, String name, String value) {
+		summary.append("  \"").append(name).append("\": ").append(quote(value)).append(",\n");
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	private void writeSummary(String summary) throws IOException {
+		if (summaryFile == null) {
+			System.out.print(summary);
+			System.out.flush();
+			return;
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(summaryFile), "UTF-8");
+		try {
+			writer.write(summary);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package net.syncarus.rcp;
 
 import net.syncarus.gui.DiffPropertiesView;
 import net.syncarus.gui.LogView;
+import net.syncarus.gui.MetricsView;
 import net.syncarus.gui.SyncView;
 
 import org.eclipse.ui.IPageLayout;
@@ -20,5 +21,6 @@ public class Perspective implements IPerspectiveFactory {
 		layout.addView(SyncView.ID, IPageLayout.LEFT, 1f, layout.getEditorArea());
 		layout.addView(DiffPropertiesView.ID, IPageLayout.RIGHT, 0.5f, SyncView.ID);
 		layout.addView(LogView.ID, IPageLayout.BOTTOM, 0.65f, DiffPropertiesView.ID);
+		layout.addView(MetricsView.ID, IPageLayout.RIGHT, 0.6f, LogView.ID);
 	}
 }
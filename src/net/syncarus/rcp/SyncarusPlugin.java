@@ -1,9 +1,15 @@
 package net.syncarus.rcp;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
+import net.syncarus.core.ChecksumCache;
+import net.syncarus.core.FileEntry;
+import net.syncarus.core.Metrics;
 import net.syncarus.core.Settings;
 import net.syncarus.core.Protocol;
+import net.syncarus.core.SnapshotIndex;
 import net.syncarus.gui.SyncView;
 import net.syncarus.model.DiffNode;
 
@@ -12,8 +18,10 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.osgi.framework.BundleContext;
 
 public class SyncarusPlugin extends AbstractUIPlugin {
 	public static final String PLUGIN_ID = "Syncarus";
@@ -23,6 +31,8 @@ public class SyncarusPlugin extends AbstractUIPlugin {
 	private Protocol protocol = new Protocol();
 	private DiffNode rootDiffNode;
 	private Settings settings;
+	private ChecksumCache checksumCache;
+	private List<FileEntry> tempFiles = Collections.emptyList();
 
 	/**
 	 * Checks whether the root directories have been set (via
@@ -43,7 +53,7 @@ public class SyncarusPlugin extends AbstractUIPlugin {
 	 * @param rootBDir
 	 */
 	public void initialize(File rootADir, File rootBDir) {
-		rootDiffNode = new DiffNode(rootADir, rootBDir);
+		rootDiffNode = DiffNode.createRoot(rootADir, rootBDir);
 		SyncarusPlugin.getInstance().getProtocol().add("rootA='" + rootDiffNode.getAbsolutePathA() +
 				"', rootB='" + rootDiffNode.getAbsolutePathB() + "'");
 	}
@@ -53,7 +63,20 @@ public class SyncarusPlugin extends AbstractUIPlugin {
 	 * <code>rootDiffNode</code> for a new differentiation process.
 	 */
 	public void resetRootNode() {
-		rootDiffNode = new DiffNode(rootDiffNode.getAbsoluteFileA(), rootDiffNode.getAbsoluteFileB());
+		rootDiffNode = DiffNode.createRoot(rootDiffNode.getAbsoluteFileA(), rootDiffNode.getAbsoluteFileB());
+		tempFiles = Collections.emptyList();
+	}
+
+	/**
+	 * @return the temporary files of copy operations found by the last
+	 *         comparison, which are removed by the next synchronisation
+	 */
+	public List<FileEntry> getTempFiles() {
+		return tempFiles;
+	}
+
+	public void setTempFiles(List<FileEntry> tempFiles) {
+		this.tempFiles = tempFiles;
 	}
 
 	/**
@@ -64,6 +87,43 @@ public class SyncarusPlugin extends AbstractUIPlugin {
 		return rootDiffNode;
 	}
 	
+	/**
+	 * @return the file which stores the {@link SnapshotIndex} of the current
+	 *         root paths A and B
+	 */
+	public File getSnapshotIndexFile() {
+		return SnapshotIndex.getIndexFile(getStateLocation().toFile(), rootDiffNode.getAbsolutePathA(),
+				rootDiffNode.getAbsolutePathB());
+	}
+	
+	/**
+	 * @param name
+	 *            name of the task, see {@link Metrics#getName()}
+	 * @return the file which stores the {@link Metrics} of the last run of a
+	 *         task
+	 */
+	public File getMetricsFile(String name) {
+		return new File(getStateLocation().toFile(), "metrics_" + name + ".json");
+	}
+	
+	/**
+	 * @return the {@link ChecksumCache} stored in the plugin's state location,
+	 *         which is loaded on first access
+	 */
+	public synchronized ChecksumCache getChecksumCache() {
+		if (checksumCache == null)
+			checksumCache = new ChecksumCache(new File(getStateLocation().toFile(), "checksums.log"));
+		return checksumCache;
+	}
+	
+	@Override
+	public void stop(BundleContext context) throws Exception {
+		if (checksumCache != null)
+			checksumCache.flush();
+		protocol.dispose();
+		super.stop(context);
+	}
+	
 	public Settings getSettings() {
 		return settings;
 	}
@@ -129,6 +189,14 @@ public class SyncarusPlugin extends AbstractUIPlugin {
 	}
 
 	public void initSettings() {
-		settings = new Settings(getPreferenceStore());
+		initSettings(getPreferenceStore());
+	}
+
+	/**
+	 * Reads the settings from the given store instead of the plugin's
+	 * preferences, e.g. when running benchmarks without the OSGi framework.
+	 */
+	public void initSettings(IPreferenceStore preferenceStore) {
+		settings = new Settings(preferenceStore);
 	}
 }
@@ -3,12 +3,22 @@ package net.syncarus.rcp.preferences;
 import net.syncarus.core.Settings;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 
 public class ComparisonPreferencePage extends SyncarusPreferencePage {
 
 	private BooleanFieldEditor syncTimestampsEditor;
 	private BooleanFieldEditor alwaysChecksumEditor;
 	private BooleanFieldEditor checksumIfPotentiallyEqualEditor;
+	private BooleanFieldEditor useSnapshotIndexEditor;
+	private BooleanFieldEditor useChecksumCacheEditor;
+	private IntegerFieldEditor comparisonThreadsEditor;
+	private IntegerFieldEditor mappingThresholdEditor;
+	private IntegerFieldEditor mappingWindowSizeEditor;
+	private IntegerFieldEditor syncThreadsEditor;
+	private IntegerFieldEditor syncThreadsPerDeviceEditor;
+	private IntegerFieldEditor deltaThresholdEditor;
+	private BooleanFieldEditor exportMetricsEditor;
 
 	@Override
 	protected void createFieldEditors() {
@@ -22,8 +32,57 @@ public class ComparisonPreferencePage extends SyncarusPreferencePage {
 		alwaysChecksumEditor = new BooleanFieldEditor(Settings.PREFKEY_ALWAYS_CHECKSUM, "Always compare file " +
 				"contents. This might significantly slow down the comparison process", getFieldEditorParent());
 		
+		useSnapshotIndexEditor = new BooleanFieldEditor(Settings.PREFKEY_USE_SNAPSHOT_INDEX, "Don't compare the " +
+				"contents of files again which were equal after the last synchronization and haven't been modified " +
+				"since then.", getFieldEditorParent());
+		
+		useChecksumCacheEditor = new BooleanFieldEditor(Settings.PREFKEY_USE_CHECKSUM_CACHE, "Remember file " +
+				"checksums on disk. The content of a file is then only read again after it has been modified.",
+				getFieldEditorParent());
+		
+		comparisonThreadsEditor = new IntegerFieldEditor(Settings.PREFKEY_COMPARISON_THREADS, "Number of " +
+				"directories compared in parallel.\nFast disks benefit from several threads, a single spinning disk " +
+				"might be faster with only one.", getFieldEditorParent());
+		comparisonThreadsEditor.setValidRange(1, 64);
+		
+		mappingThresholdEditor = new IntegerFieldEditor(Settings.PREFKEY_MAPPING_THRESHOLD, "Compare files " +
+				"larger than this size (MB) by mapping them into memory (0 = never).", getFieldEditorParent());
+		mappingThresholdEditor.setValidRange(0, Integer.MAX_VALUE);
+		
+		mappingWindowSizeEditor = new IntegerFieldEditor(Settings.PREFKEY_MAPPING_WINDOW_SIZE, "Size of the " +
+				"memory-mapped windows (MB).", getFieldEditorParent());
+		mappingWindowSizeEditor.setValidRange(1, 1024);
+		
+		syncThreadsEditor = new IntegerFieldEditor(Settings.PREFKEY_SYNC_THREADS, "Number of files copied, " +
+				"deleted or touched in parallel during a synchronization (1 = one after the other).",
+				getFieldEditorParent());
+		syncThreadsEditor.setValidRange(1, 64);
+		
+		syncThreadsPerDeviceEditor = new IntegerFieldEditor(Settings.PREFKEY_SYNC_THREADS_PER_DEVICE, "Maximum " +
+				"number of parallel file operations on the same disk. Use 1 for spinning disks, more for SSDs " +
+				"and network drives.", getFieldEditorParent());
+		syncThreadsPerDeviceEditor.setValidRange(1, 64);
+		
+		deltaThresholdEditor = new IntegerFieldEditor(Settings.PREFKEY_DELTA_THRESHOLD, "Only write the changed " +
+				"parts of replaced files larger than this size (MB), updating them in place (0 = never).",
+				getFieldEditorParent());
+		deltaThresholdEditor.setValidRange(0, Integer.MAX_VALUE);
+		
+		exportMetricsEditor = new BooleanFieldEditor(Settings.PREFKEY_EXPORT_METRICS, "Write the timings and " +
+				"counters of each comparison and synchronization to a JSON file in the workspace.",
+				getFieldEditorParent());
+		
 		addField(syncTimestampsEditor);
 		addField(checksumIfPotentiallyEqualEditor);
 		addField(alwaysChecksumEditor);
+		addField(useSnapshotIndexEditor);
+		addField(useChecksumCacheEditor);
+		addField(comparisonThreadsEditor);
+		addField(mappingThresholdEditor);
+		addField(mappingWindowSizeEditor);
+		addField(syncThreadsEditor);
+		addField(syncThreadsPerDeviceEditor);
+		addField(deltaThresholdEditor);
+		addField(exportMetricsEditor);
 	}
 }
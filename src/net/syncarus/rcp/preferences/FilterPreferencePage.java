@@ -4,12 +4,15 @@ package net.syncarus.rcp.preferences;
  * This preference page allows the user to enter wildcards for filtering
  * arbitrary files from the synchronisation process. This is convenient for
  * files, which are not relevant for the synchronisation, e.g. thumbs.db created
- * by windows explorer.
+ * by windows explorer.<br>
+ * Besides regular expressions on names, rules on relative paths in the syntax
+ * of <code>.gitignore</code> files are supported.
  */
 public class FilterPreferencePage extends SyncarusPreferencePage {
 
 	@Override
 	protected void createFieldEditors() {
 		addField(new RegExFieldEditor(getFieldEditorParent()));
+		addField(new GlobFieldEditor(getFieldEditorParent()));
 	}
 }
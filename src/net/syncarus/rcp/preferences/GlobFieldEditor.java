@@ -0,0 +1,44 @@
+package net.syncarus.rcp.preferences;
+
+import net.syncarus.core.GlobFilter;
+import net.syncarus.core.Settings;
+
+import org.eclipse.jface.dialogs.IInputValidator;
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * A field editor for the input of path rules in the syntax of
+ * <code>.gitignore</code> files, see {@link GlobFilter}.
+ */
+public class GlobFieldEditor extends RegExFieldEditor {
+
+	public GlobFieldEditor(Composite parent) {
+		super(Settings.PREFKEY_GLOB_FILTER, "Paths to ignore (.gitignore syntax, e.g. /build/, *.tmp, !keep.tmp)",
+				"path rule", new GlobInputValidator(), parent);
+	}
+
+	@Override
+	protected String[] fromPreferenceString(String preferenceString) {
+		return Settings.globRulesFromPreferenceString(preferenceString);
+	}
+
+	@Override
+	protected String toPreferenceString(String[] expressions) {
+		return Settings.globRulesToPreferenceString(expressions);
+	}
+
+	/**
+	 * Checks whether the given rule can be compiled.
+	 */
+	private static class GlobInputValidator implements IInputValidator {
+		@Override
+		public String isValid(String newText) {
+			try {
+				new GlobFilter(new String[] { newText });
+				return null;
+			} catch (RuntimeException e) {
+				return "Invalid path rule: " + e.getMessage();
+			}
+		}
+	}
+}
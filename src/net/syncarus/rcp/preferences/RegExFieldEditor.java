@@ -24,10 +24,14 @@ import org.eclipse.swt.widgets.List;
 import org.eclipse.swt.widgets.Widget;
 
 /**
- * A field editor for the input of regular expressions.
+ * A field editor for the input of regular expressions. Subclasses may edit
+ * other kinds of expressions by providing their own validator.
  */
 public class RegExFieldEditor extends FieldEditor {
 
+	private final String expressionName;
+	private final IInputValidator validator;
+
 	private List list;
 	private Composite buttonBox;
 	private Button addButton;
@@ -104,7 +108,7 @@ public class RegExFieldEditor extends FieldEditor {
 			return;
 
 		String s = getPreferenceStore().getString(getPreferenceName());
-		String[] array = Settings.filterFromPreferenceString(s);
+		String[] array = fromPreferenceString(s);
 		for (int i = 0; i < array.length; i++) {
 			list.add(array[i]);
 		}
@@ -117,7 +121,7 @@ public class RegExFieldEditor extends FieldEditor {
 
 		list.removeAll();
 		String s = getPreferenceStore().getDefaultString(getPreferenceName());
-		String[] array = Settings.filterFromPreferenceString(s);
+		String[] array = fromPreferenceString(s);
 		for (int i = 0; i < array.length; i++) {
 			list.add(array[i]);
 		}
@@ -125,11 +129,25 @@ public class RegExFieldEditor extends FieldEditor {
 
 	@Override
 	protected void doStore() {
-		String s = Settings.filterToPreferenceString(list.getItems());
+		String s = toPreferenceString(list.getItems());
 		if (s != null)
 			getPreferenceStore().setValue(getPreferenceName(), s);
 	}
 
+	/**
+	 * Splits the stored preference value into the expressions.
+	 */
+	protected String[] fromPreferenceString(String preferenceString) {
+		return Settings.filterFromPreferenceString(preferenceString);
+	}
+
+	/**
+	 * Joins the expressions into the preference value to be stored.
+	 */
+	protected String toPreferenceString(String[] expressions) {
+		return Settings.filterToPreferenceString(expressions);
+	}
+
 	public Composite getButtonBoxControl(Composite parent) {
 		if (buttonBox == null) {
 			buttonBox = new Composite(parent, SWT.NULL);
@@ -182,8 +200,8 @@ public class RegExFieldEditor extends FieldEditor {
 	}
 	
 	private void addPressed() {
-		InputDialog dialog = new InputDialog(buttonBox.getShell(), "New regular expression",
-				"Please enter a new regular expression", "", new WildCardInputValidator());
+		InputDialog dialog = new InputDialog(buttonBox.getShell(), "New " + expressionName,
+				"Please enter a new " + expressionName, "", validator);
 		if (dialog.open() != Window.OK)
 			return;
 
@@ -199,8 +217,8 @@ public class RegExFieldEditor extends FieldEditor {
 	
 	private void editPressed() {
 		String value = list.getItem(list.getSelectionIndex());
-		InputDialog dialog = new InputDialog(buttonBox.getShell(), "Edit regular expression",
-				"Modify the regular expression", value, new WildCardInputValidator());
+		InputDialog dialog = new InputDialog(buttonBox.getShell(), "Edit " + expressionName,
+				"Modify the " + expressionName, value, validator);
 		if (dialog.open() != Window.OK)
 			return;
 		
@@ -241,7 +259,21 @@ public class RegExFieldEditor extends FieldEditor {
 	}
 
 	public RegExFieldEditor(Composite parent) {
-		init(Settings.PREFKEY_FILTER, "File and directory names to ignore");
+		this(Settings.PREFKEY_FILTER, "File and directory names to ignore", "regular expression",
+				new WildCardInputValidator(), parent);
+	}
+
+	/**
+	 * @param expressionName
+	 *            name of the expressions used in dialog titles and messages
+	 * @param validator
+	 *            checks new and modified expressions
+	 */
+	protected RegExFieldEditor(String preferenceName, String labelText, String expressionName,
+			IInputValidator validator, Composite parent) {
+		this.expressionName = expressionName;
+		this.validator = validator;
+		init(preferenceName, labelText);
 		createControl(parent);
 		doFillIntoGrid(parent, 1);
 	}
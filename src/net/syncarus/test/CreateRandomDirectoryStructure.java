@@ -8,18 +8,15 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Random;
 
+import net.syncarus.test.DatasetGenerator.NameCharset;
+
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.RandomStringUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 public class CreateRandomDirectoryStructure {
 
 	public static final Random RAND = new Random(0);
-	// probability of creating a folder
-	private static final double PROP_FOLDER = 0.145;
-	// probability of creating a file
-	private static final double PROP_FILE = 0.84;
 	// use simple or weird names for files
 	private static boolean simpleNames = false;
 	
@@ -41,13 +38,39 @@ public class CreateRandomDirectoryStructure {
 
 	@Test
 	public void createRandomFileStructure() throws IOException {
-		File srcDir = new File(baseDir, "syncarus_A");
-		assertTrue(srcDir.mkdir());
-		createSrcFolder(srcDir, 1.0);
+		DatasetGenerator generator = new DatasetGenerator();
+		generator.setDepth(2);
+		generator.setFanOut(3);
+		generator.setFilesPerFolder(10);
+		generator.setFileSizes(1024, 2, 200 * 1024);
+		generator.setDifferenceRate(0.3);
+		generator.setNameCharset(simpleNames ? NameCharset.SIMPLE : NameCharset.UNICODE);
+		generator.generate(new File(baseDir, "syncarus_A"), new File(baseDir, "syncarus_B"));
+		assertTrue(generator.getNumOfFiles() > 0);
+	}
 
-		File destDir = new File(baseDir, "syncarus_B");
-		assertTrue(destDir.mkdir());
-		createDestFolder(srcDir, destDir);
+	@Test
+	public void generatedStructureDoesNotDependOnThreads() throws IOException {
+		DatasetGenerator generator = new DatasetGenerator();
+		generator.setThreads(1);
+		generator.generate(new File(baseDir, "serial_A"), new File(baseDir, "serial_B"));
+		generator.setThreads(8);
+		generator.generate(new File(baseDir, "parallel_A"), new File(baseDir, "parallel_B"));
+		assertEqualTrees(new File(baseDir, "serial_A"), new File(baseDir, "parallel_A"));
+		assertEqualTrees(new File(baseDir, "serial_B"), new File(baseDir, "parallel_B"));
+	}
+
+	private static void assertEqualTrees(File expected, File actual) throws IOException {
+		assertEquals(expected.isDirectory(), actual.isDirectory());
+		if (!expected.isDirectory()) {
+			assertEquals(expected.lastModified(), actual.lastModified());
+			assertTrue(FileUtils.contentEquals(expected, actual));
+			return;
+		}
+		String[] names = expected.list();
+		assertEquals(names.length, actual.list().length);
+		for (String name : names)
+			assertEqualTrees(new File(expected, name), new File(actual, name));
 	}
 	
 	@Test
@@ -96,28 +119,6 @@ public class CreateRandomDirectoryStructure {
 		dirA.setLastModified(fileA.lastModified() + 1000);
 	}
 
-	private void createSrcFolder(File srcDir, double cf) throws IOException {
-		while (true) {
-			double r = RAND.nextFloat();
-			if (r < PROP_FOLDER * cf) {
-				File subDir = new File(srcDir, genName(true));
-				subDir.mkdir();
-				createSrcFolder(subDir,  cf-0.03);
-				continue;
-			}
-			if (r < (PROP_FOLDER + PROP_FILE) * cf) {
-				File file = new File(srcDir, genName(false));
-				writeRandomContent(file);
-				continue;
-			}
-			return;
-		}
-	}
-	
-	private void writeRandomContent(File file) throws IOException {
-		writeRandomContent(file, RAND.nextInt(200));
-	}
-	
 	private void writeRandomContent(File file, int length) {
 		try {
 			BufferedWriter writer = new BufferedWriter(new FileWriter(file));
@@ -133,109 +134,9 @@ public class CreateRandomDirectoryStructure {
 		}
 	}
 
-	private void createDestFolder(File srcDir, File destDir) throws IOException {
-		for (File f : srcDir.listFiles()) {
-			double r = RAND.nextFloat();
-			if (r < 0.05) {
-				// file/folder only available in the source folder
-				continue;
-			}
-			if (r < 0.95) {
-				if (f.isFile()) {
-					// simply copy the file
-					FileUtils.copyFileToDirectory(f, destDir, true);
-					manipulateFiles(f, new File(destDir, f.getName()));
-				} else if (RAND.nextFloat() < 0.1) {
-					// copy the directory, nothing else to be done here
-					FileUtils.copyDirectory(f,  destDir, true);
-				} else {
-					// create and empty directory and step into it
-					File subDestDir = new File(destDir, f.getName());
-					subDestDir.mkdir();
-					createDestFolder(f, subDestDir);
-				}
-				continue;
-			}
-			// file/folder only available in the target folder
-			delete(f);
-		}
-	}
-	
-	/**
-	 * Precondition: both files exist.
-	 * Now manipulate them
-	 * @param srcFile
-	 * @param destFile
-	 * @throws IOException 
-	 */
-	private void manipulateFiles(File srcFile, File destFile) throws IOException {
-		double r = RAND.nextFloat();
-		
-		if (r < 0.05) {
-			// same content, source newer time
-			srcFile.setLastModified(destFile.lastModified() + 4000);
-		} else if (r < 0.1) {
-			// same content, destination newer time
-			srcFile.setLastModified(destFile.lastModified() - 6000);
-		} else if (r < 0.2) {
-			// different content, source newer time
-			writeRandomContent(destFile);
-			srcFile.setLastModified(destFile.lastModified() + 8000);
-		} else if (r < 0.3) {
-			// different content, destination newer time
-			writeRandomContent(destFile);
-			srcFile.setLastModified(destFile.lastModified() - 10000);
-		} else if (r < 0.31) {
-			// different content, same time
-			writeRandomContent(destFile);
-			srcFile.setLastModified(destFile.lastModified());
-		}
-		// equal files
-	}
-
-	/**
-	 * deletes the file, or, if it is a directory, recursively deletes that directory.
-	 * @param file
-	 * @throws IOException 
-	 */
-	private static void delete(File file) throws IOException  {
-		if (file.isFile())
-			file.delete();
-		else
-			FileUtils.deleteDirectory(file);
-	}
-	
-	private static final String WIN_REGEX = "\\\\|/|:|\\*|\\?|\"|\\||<|>|\0|[\u0000-\u001f]";
-	private static final String LINUX_REGEX= "/|\0";
-	private static String genName(boolean dir) {
-		String name = simpleNames ? simpleName(dir) : RandomStringUtils.random(8);
-		if (isWindows()) {
-			return name.replaceAll(WIN_REGEX, "_");
-		} else if (isLinux()) {
-			return name.replaceAll(LINUX_REGEX, "_");
-		}
-		else
-			throw new RuntimeException("This OS is not supported.");
-	}
-	
 	@Test
 	public void replace() {
-		String test = "\\/:*?\"|<>\0\u0004\u0008\u0012\u0016\u001f\u0014".replaceAll(WIN_REGEX, "X");
-		assertEquals("XXXXXXXXXXXXXXXX", test);
-	}
-	
-	public static String simpleName(boolean dir) {
-		String prefix = dir ? "dir_" : "file_";
-		return prefix + RandomStringUtils.randomAlphanumeric(6);
-	}
-	
-	public static boolean isWindows() {
-		String os = System.getProperty("os.name").toLowerCase();
-		return (os.indexOf("win") >= 0);
-	}
- 
-	public static boolean isLinux() {
-		String os = System.getProperty("os.name").toLowerCase();
-		return (os.indexOf("nix") >= 0 || os.indexOf("nux") >= 0);
+		String test = DatasetGenerator.sanitize("\\/:*?\"|<>\0\u0004\u0008\u0012\u0016\u001f\u0014", true);
+		assertEquals("________________", test);
 	}
 }
@@ -0,0 +1,435 @@
+package net.syncarus.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.RandomStringUtils;
+
+/**
+ * Generates a pair of directory trees A and B for tests and benchmarks. B
+ * mirrors A except for a configurable fraction of differences: files and
+ * folders only present in A or B, files with different content which are
+ * newer in A or B, files which only differ in their modification date and
+ * files with different content but equal size and date.<br>
+ * Every folder derives its own random generator from the seed and its
+ * position in the tree, so the result only depends on the parameters, even
+ * though folders are written concurrently. Modification dates are set
+ * explicitly and are reproducible as well.<br>
+ * The number of files is
+ * <code>filesPerFolder * (1 + fanOut + fanOut^2 + ... + fanOut^depth)</code>
+ * per tree, apart from the differences.
+ */
+public class DatasetGenerator {
+	public static enum NameCharset {
+		/** names like <code>file_x7Gq2a</code> */
+		SIMPLE,
+		/** printable ASCII characters */
+		ASCII,
+		/** arbitrary characters, which tests the handling of encodings */
+		UNICODE
+	}
+
+	private static enum Difference {
+		ONLY_A, ONLY_B, NEWER_A, NEWER_B, TOUCHED, SAME_SIZE_AND_DATE
+	}
+
+	// characters not allowed in file names
+	static final String WIN_REGEX = "\\\\|/|:|\\*|\\?|\"|\\||<|>|\0|[\u0000-\u001f]";
+	static final String LINUX_REGEX = "/|\0";
+
+	/** modification dates are spread over a year before this date */
+	private static final long BASE_TIME = 1262304000000L;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int SPARSE_BLOCK_SIZE = 4096;
+	private static final int SPARSE_BLOCKS = 8;
+
+	private long seed = 0;
+	private int depth = 3;
+	private int fanOut = 4;
+	private int filesPerFolder = 20;
+	private long medianFileSize = 4 * 1024;
+	private double fileSizeSpread = 1.5;
+	private long maxFileSize = 64 * 1024 * 1024;
+	private double differenceRate = 0.1;
+	private NameCharset nameCharset = NameCharset.SIMPLE;
+	private double sparseFileRate = 0;
+	private long sparseFileSize = 1024L * 1024 * 1024;
+	private int threads = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final AtomicLong numOfFiles = new AtomicLong();
+	private final AtomicLong numOfBytes = new AtomicLong();
+
+	private final ThreadLocal<byte[]> buffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = -6437460567617749337L;
+
+		private final File folderA;
+		private final File folderB;
+		private final int level;
+		private final long folderSeed;
+
+		public FolderTask(File folderA, File folderB, int level, long folderSeed) {
+			this.folderA = folderA;
+			this.folderB = folderB;
+			this.level = level;
+			this.folderSeed = folderSeed;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				ForkJoinTask.invokeAll(createFolder(this));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param depth
+	 *            number of folder levels below the root folders
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * @param fanOut
+	 *            number of sub-folders of each folder above the lowest level
+	 */
+	public void setFanOut(int fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	public void setFilesPerFolder(int filesPerFolder) {
+		this.filesPerFolder = filesPerFolder;
+	}
+
+	/**
+	 * File sizes follow a log-normal distribution.
+	 *
+	 * @param median
+	 *            half of the files are smaller than this size in bytes
+	 * @param spread
+	 *            standard deviation of the logarithm of the size,
+	 *            <code>0</code> makes all files equally large
+	 * @param max
+	 *            maximum size of a file in bytes
+	 */
+	public void setFileSizes(long median, double spread, long max) {
+		this.medianFileSize = median;
+		this.fileSizeSpread = spread;
+		this.maxFileSize = max;
+	}
+
+	/**
+	 * @param differenceRate
+	 *            fraction of files which differ between A and B; a tenth of
+	 *            this rate applies to whole folders
+	 */
+	public void setDifferenceRate(double differenceRate) {
+		this.differenceRate = differenceRate;
+	}
+
+	public void setNameCharset(NameCharset nameCharset) {
+		this.nameCharset = nameCharset;
+	}
+
+	/**
+	 * Sparse files have a large size, but only a few blocks are actually
+	 * written, so they hardly take any space on file systems supporting
+	 * sparse files.
+	 *
+	 * @param rate
+	 *            fraction of files which are sparse
+	 * @param size
+	 *            size of a sparse file in bytes
+	 */
+	public void setSparseFiles(double rate, long size) {
+		this.sparseFileRate = rate;
+		this.sparseFileSize = size;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads writing concurrently
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Creates both trees, existing files are overwritten.
+	 */
+	public void generate(File rootA, File rootB) throws IOException {
+		numOfFiles.set(0);
+		numOfBytes.set(0);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new FolderTask(rootA, rootB, 0, seed));
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return number of files written to both trees by the last call of
+	 *         {@link #generate(File, File)}
+	 */
+	public long getNumOfFiles() {
+		return numOfFiles.get();
+	}
+
+	/**
+	 * @return number of bytes actually written, excluding the holes of sparse
+	 *         files
+	 */
+	public long getNumOfBytes() {
+		return numOfBytes.get();
+	}
+
+	/**
+	 * Writes the files of a folder and returns the tasks for its sub-folders.
+	 * Either folder may be <code>null</code> when the folder only exists in
+	 * one of the trees.
+	 */
+	private List<FolderTask> createFolder(FolderTask task) throws IOException {
+		Random random = new Random(task.folderSeed);
+		if (task.folderA != null)
+			task.folderA.mkdirs();
+		if (task.folderB != null)
+			task.folderB.mkdirs();
+
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < filesPerFolder; i++) {
+			String name = createName(random, names, false);
+			File fileA = task.folderA == null ? null : new File(task.folderA, name);
+			File fileB = task.folderB == null ? null : new File(task.folderB, name);
+			createFilePair(random, fileA, fileB);
+		}
+
+		List<FolderTask> subTasks = new ArrayList<FolderTask>();
+		if (task.level == depth)
+			return subTasks;
+		for (int i = 0; i < fanOut; i++) {
+			String name = createName(random, names, true);
+			File subFolderA = task.folderA == null ? null : new File(task.folderA, name);
+			File subFolderB = task.folderB == null ? null : new File(task.folderB, name);
+			double r = random.nextDouble();
+			if (subFolderA != null && subFolderB != null) {
+				if (r < differenceRate / 20)
+					subFolderB = null;
+				else if (r < differenceRate / 10)
+					subFolderA = null;
+			}
+			subTasks.add(new FolderTask(subFolderA, subFolderB, task.level + 1, random.nextLong()));
+		}
+		return subTasks;
+	}
+
+	private void createFilePair(Random random, File fileA, File fileB) throws IOException {
+		boolean sparse = random.nextDouble() < sparseFileRate;
+		long size = sparse ? sparseFileSize : nextFileSize(random);
+		long contentSeed = random.nextLong();
+		long lastModified = BASE_TIME + (long) (random.nextDouble() * 365 * 24 * 3600) * 1000;
+		Difference difference = null;
+		if (random.nextDouble() < differenceRate)
+			difference = Difference.values()[random.nextInt(Difference.values().length)];
+
+		if (fileA == null || fileB == null) {
+			// the whole folder only exists in one tree
+			writeFile(fileA != null ? fileA : fileB, size, sparse, contentSeed, lastModified);
+			return;
+		}
+		if (difference != Difference.ONLY_B)
+			writeFile(fileA, size, sparse, contentSeed, lastModified);
+		if (difference == Difference.ONLY_A)
+			return;
+
+		long contentSeedB = contentSeed;
+		long lastModifiedB = lastModified;
+		if (difference != null) {
+			switch (difference) {
+			case NEWER_A:
+				contentSeedB = random.nextLong();
+				lastModifiedB = lastModified - 10000;
+				break;
+			case NEWER_B:
+				contentSeedB = random.nextLong();
+				lastModifiedB = lastModified + 10000;
+				break;
+			case TOUCHED:
+				lastModifiedB = lastModified + 4000;
+				break;
+			case SAME_SIZE_AND_DATE:
+				contentSeedB = random.nextLong();
+				break;
+			default:
+				break;
+			}
+		}
+		writeFile(fileB, size, sparse, contentSeedB, lastModifiedB);
+	}
+
+	private long nextFileSize(Random random) {
+		double size = medianFileSize * Math.exp(random.nextGaussian() * fileSizeSpread);
+		return Math.min(maxFileSize, Math.round(size));
+	}
+
+	/**
+	 * Writes the content derived from <code>contentSeed</code>, so equal
+	 * files of both trees are written independently.
+	 */
+	private void writeFile(File file, long size, boolean sparse, long contentSeed, long lastModified)
+			throws IOException {
+		Random random = new Random(contentSeed);
+		byte[] bytes = buffer.get();
+		long written = 0;
+		if (sparse) {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(0);
+				out.setLength(size);
+				for (int i = 0; i < SPARSE_BLOCKS; i++) {
+					int length = (int) Math.min(SPARSE_BLOCK_SIZE, size);
+					random.nextBytes(bytes);
+					out.seek((long) (random.nextDouble() * (size - length)));
+					out.write(bytes, 0, length);
+					written += length;
+				}
+			} finally {
+				out.close();
+			}
+		} else {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				while (written < size) {
+					int length = (int) Math.min(bytes.length, size - written);
+					random.nextBytes(bytes);
+					out.write(bytes, 0, length);
+					written += length;
+				}
+			} finally {
+				out.close();
+			}
+		}
+		numOfBytes.addAndGet(written);
+		file.setLastModified(lastModified);
+		numOfFiles.incrementAndGet();
+	}
+
+	/**
+	 * @return a name which isn't contained in <code>names</code> yet, also
+	 *         when ignoring the case
+	 */
+	private String createName(Random random, Set<String> names, boolean folder) {
+		while (true) {
+			String name;
+			switch (nameCharset) {
+			case ASCII:
+				name = RandomStringUtils.random(8, 32, 127, false, false, null, random);
+				break;
+			case UNICODE:
+				name = RandomStringUtils.random(8, 0, 0, false, false, null, random);
+				break;
+			default:
+				name = (folder ? "dir_" : "file_") + RandomStringUtils.random(6, 0, 0, true, true, null, random);
+			}
+			name = sanitize(name, isWindows());
+			if (!name.equals(".") && !name.equals("..") && names.add(name.toLowerCase(Locale.ROOT)))
+				return name;
+		}
+	}
+
+	/**
+	 * replaces all characters which aren't allowed in file names
+	 */
+	static String sanitize(String name, boolean windows) {
+		return name.replaceAll(windows ? WIN_REGEX : LINUX_REGEX, "_");
+	}
+
+	static boolean isWindows() {
+		return System.getProperty("os.name").toLowerCase().indexOf("win") >= 0;
+	}
+
+	/**
+	 * Generates a pair of trees from the command line:
+	 *
+	 * <pre>
+	 * DatasetGenerator [--seed N] [--depth N] [--fan-out N] [--files N] [--size MEDIAN SPREAD MAX]
+	 *         [--differences RATE] [--names SIMPLE|ASCII|UNICODE] [--sparse RATE SIZE] [--threads N] DIR_A DIR_B
+	 * </pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		DatasetGenerator generator = new DatasetGenerator();
+		List<File> roots = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--seed"))
+					generator.setSeed(Long.parseLong(args[++i]));
+				else if (arg.equals("--depth"))
+					generator.setDepth(Integer.parseInt(args[++i]));
+				else if (arg.equals("--fan-out"))
+					generator.setFanOut(Integer.parseInt(args[++i]));
+				else if (arg.equals("--files"))
+					generator.setFilesPerFolder(Integer.parseInt(args[++i]));
+				else if (arg.equals("--size"))
+					generator.setFileSizes(Long.parseLong(args[++i]), Double.parseDouble(args[++i]),
+							Long.parseLong(args[++i]));
+				else if (arg.equals("--differences"))
+					generator.setDifferenceRate(Double.parseDouble(args[++i]));
+				else if (arg.equals("--names"))
+					generator.setNameCharset(NameCharset.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+				else if (arg.equals("--sparse"))
+					generator.setSparseFiles(Double.parseDouble(args[++i]), Long.parseLong(args[++i]));
+				else if (arg.equals("--threads"))
+					generator.setThreads(Integer.parseInt(args[++i]));
+				else
+					roots.add(new File(arg));
+			}
+		} catch (RuntimeException e) {
+			roots.clear();
+		}
+		if (roots.size() != 2) {
+			System.err.println("Usage: [--seed N] [--depth N] [--fan-out N] [--files N] [--size MEDIAN SPREAD MAX] "
+					+ "[--differences RATE] [--names SIMPLE|ASCII|UNICODE] [--sparse RATE SIZE] [--threads N] "
+					+ "DIR_A DIR_B");
+			System.exit(64);
+		}
+
+		long start = System.currentTimeMillis();
+		generator.generate(roots.get(0), roots.get(1));
+		double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+		System.out.println(String.format("Generated %d files (%d MB) in %.1f s (%.0f files per second)",
+				generator.getNumOfFiles(), generator.getNumOfBytes() / (1024 * 1024), seconds,
+				generator.getNumOfFiles() / seconds));
+	}
+}
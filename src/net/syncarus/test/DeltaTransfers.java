@@ -0,0 +1,113 @@
+package net.syncarus.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.syncarus.core.DeltaTransfer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Updates files by {@link DeltaTransfer} and checks that they end up with
+ * the content of the new version.
+ */
+public class DeltaTransfers {
+	private static final int SIZE = 4 * 1024 * 1024;
+
+	private final Random random = new Random(0);
+
+	@Test
+	public void identicalFileIsntWritten() throws Exception {
+		byte[] content = randomBytes(SIZE);
+		assertEquals(SIZE, update(content, content));
+	}
+
+	@Test
+	public void modifiedBytes() throws Exception {
+		byte[] oldContent = randomBytes(SIZE);
+		byte[] newContent = oldContent.clone();
+		for (int i = 0; i < 10; i++)
+			newContent[random.nextInt(SIZE)]++;
+		long unchanged = update(oldContent, newContent);
+		assertTrue(unchanged >= SIZE - 10 * 4096);
+	}
+
+	@Test
+	public void insertedBytes() throws Exception {
+		byte[] oldContent = randomBytes(SIZE);
+		byte[] newContent = concat(Arrays.copyOf(oldContent, SIZE / 2), randomBytes(1000),
+				Arrays.copyOfRange(oldContent, SIZE / 2, SIZE));
+		// moving the second half towards the end would overwrite blocks which are still needed
+		assertTrue(update(oldContent, newContent) >= SIZE / 2 - 4096);
+	}
+
+	@Test
+	public void removedBytes() throws Exception {
+		byte[] oldContent = randomBytes(SIZE);
+		byte[] newContent = concat(Arrays.copyOf(oldContent, SIZE / 4), Arrays.copyOfRange(oldContent,
+				SIZE / 4 + 1234, SIZE));
+		assertTrue(update(oldContent, newContent) >= SIZE / 4 - 4096);
+	}
+
+	@Test
+	public void appendedAndTruncated() throws Exception {
+		byte[] oldContent = randomBytes(SIZE);
+		update(oldContent, concat(oldContent, randomBytes(12345)));
+		update(oldContent, Arrays.copyOf(oldContent, SIZE - 12345));
+	}
+
+	@Test
+	public void emptyFiles() throws Exception {
+		update(new byte[0], randomBytes(100000));
+		update(randomBytes(100000), new byte[0]);
+	}
+
+	@Test
+	public void repeatedBlocks() throws Exception {
+		byte[] oldContent = new byte[SIZE];
+		byte[] newContent = new byte[SIZE + 100];
+		Arrays.fill(newContent, SIZE / 2, SIZE / 2 + 100, (byte) 1);
+		update(oldContent, newContent);
+	}
+
+	/**
+	 * @return the number of unchanged bytes
+	 */
+	private long update(byte[] oldContent, byte[] newContent) throws Exception {
+		File source = File.createTempFile("syncarus_delta", ".new");
+		File target = File.createTempFile("syncarus_delta", ".old");
+		try {
+			FileUtils.writeByteArrayToFile(source, newContent);
+			FileUtils.writeByteArrayToFile(target, oldContent);
+			long unchanged = DeltaTransfer.update(source, target, null);
+			assertArrayEquals(newContent, FileUtils.readFileToByteArray(target));
+			return unchanged;
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts)
+			length += part.length;
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+}
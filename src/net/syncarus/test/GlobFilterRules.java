@@ -0,0 +1,129 @@
+package net.syncarus.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.syncarus.core.GlobFilter;
+import net.syncarus.core.Settings;
+
+import org.junit.Test;
+
+public class GlobFilterRules {
+
+	/**
+	 * Walks the path like the directory scanner does: a path is excluded
+	 * when one of its folders is excluded.
+	 */
+	private static boolean isExcluded(GlobFilter filter, String path, boolean isDirectory) {
+		GlobFilter.State state = filter.getRootState();
+		String[] segments = path.split("/");
+		for (int i = 0; i < segments.length; i++) {
+			state = state.enter(segments[i]);
+			boolean last = i == segments.length - 1;
+			if (state.isExcluded(!last || isDirectory))
+				return true;
+		}
+		return false;
+	}
+
+	private static GlobFilter filter(String... rules) {
+		return new GlobFilter(rules);
+	}
+
+	@Test
+	public void unanchoredNames() {
+		GlobFilter filter = filter("Thumbs.db", "*.tmp", "~*", "a?c");
+		assertTrue(isExcluded(filter, "Thumbs.db", false));
+		assertTrue(isExcluded(filter, "x/y/Thumbs.db", false));
+		assertTrue(isExcluded(filter, "x/file.tmp", false));
+		assertTrue(isExcluded(filter, ".tmp", false));
+		assertTrue(isExcluded(filter, "~lock", false));
+		assertTrue(isExcluded(filter, "x/abc", false));
+		assertFalse(isExcluded(filter, "thumbs.db", false));
+		assertFalse(isExcluded(filter, "file.tmp2", false));
+		assertFalse(isExcluded(filter, "abbc", false));
+	}
+
+	@Test
+	public void anchoredRules() {
+		GlobFilter filter = filter("/build", "doc/*.html");
+		assertTrue(isExcluded(filter, "build", true));
+		assertTrue(isExcluded(filter, "build/classes/A.class", false));
+		assertFalse(isExcluded(filter, "src/build", true));
+		assertTrue(isExcluded(filter, "doc/index.html", false));
+		assertFalse(isExcluded(filter, "doc/api/index.html", false));
+		assertFalse(isExcluded(filter, "x/doc/index.html", false));
+	}
+
+	@Test
+	public void folderOnlyRules() {
+		GlobFilter filter = filter("target/");
+		assertTrue(isExcluded(filter, "target", true));
+		assertTrue(isExcluded(filter, "module/target", true));
+		assertFalse(isExcluded(filter, "target", false));
+	}
+
+	@Test
+	public void anyFolders() {
+		GlobFilter filter = filter("**/cache", "logs/**", "a/**/z");
+		assertTrue(isExcluded(filter, "cache", true));
+		assertTrue(isExcluded(filter, "x/y/cache", false));
+		assertTrue(isExcluded(filter, "logs/today.log", false));
+		assertFalse(isExcluded(filter, "logs", true));
+		assertTrue(isExcluded(filter, "a/z", false));
+		assertTrue(isExcluded(filter, "a/b/c/z", false));
+		assertFalse(isExcluded(filter, "b/a/z", false));
+	}
+
+	@Test
+	public void lastMatchingRuleWins() {
+		GlobFilter filter = filter("*.log", "!important.log", "/important.log");
+		assertTrue(isExcluded(filter, "debug.log", false));
+		assertFalse(isExcluded(filter, "x/important.log", false));
+		assertTrue(isExcluded(filter, "important.log", false));
+	}
+
+	@Test
+	public void excludedFoldersCannotBeIncludedAgain() {
+		GlobFilter filter = filter("tmp/", "!tmp/keep");
+		assertTrue(isExcluded(filter, "tmp/keep", false));
+	}
+
+	@Test
+	public void commentsEscapesAndClasses() {
+		GlobFilter filter = filter("# comment", "", "\\#hash", "\\!bang", "file[0-9].txt", "x[!a]", "star\\*");
+		assertFalse(isExcluded(filter, "# comment", false));
+		assertTrue(isExcluded(filter, "#hash", false));
+		assertTrue(isExcluded(filter, "!bang", false));
+		assertTrue(isExcluded(filter, "file7.txt", false));
+		assertFalse(isExcluded(filter, "fileA.txt", false));
+		assertTrue(isExcluded(filter, "xb", false));
+		assertFalse(isExcluded(filter, "xa", false));
+		assertTrue(isExcluded(filter, "star*", false));
+		assertFalse(isExcluded(filter, "starlet", false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unclosedCharacterClass() {
+		filter("file[0-9");
+	}
+
+	@Test
+	public void manyRules() {
+		String[] rules = new String[500];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = i % 2 == 0 ? "*.ext" + i : "/dir" + i + "/";
+		GlobFilter filter = filter(rules);
+		assertTrue(isExcluded(filter, "a/b.ext498", false));
+		assertTrue(isExcluded(filter, "dir499", true));
+		assertFalse(isExcluded(filter, "a/dir499", true));
+		assertFalse(isExcluded(filter, "a/b.ext499", false));
+	}
+
+	@Test
+	public void rulesSurviveThePreferenceStore() {
+		String[] rules = { "My Documents/", "\\#hash", "# comment", "a|b", " #|# " };
+		assertArrayEquals(rules, Settings.globRulesFromPreferenceString(Settings.globRulesToPreferenceString(rules)));
+	}
+}
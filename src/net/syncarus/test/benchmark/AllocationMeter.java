@@ -0,0 +1,107 @@
+package net.syncarus.test.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Measures the number of bytes allocated on the heap by all threads, which
+ * includes the worker threads of the comparison and synchronisation. The
+ * bytes freed by each garbage collection are accumulated, so the allocated
+ * bytes are the growth of the used heap plus the freed bytes.<br>
+ * Notifications of collections are delivered asynchronously. Before the
+ * counters are read, the meter waits until the notifications of all
+ * collections counted so far have arrived, so bytes freed before
+ * {@link #start()} aren't attributed to the measurement.
+ */
+public class AllocationMeter implements NotificationListener {
+	/** maximum time to wait for outstanding notifications */
+	private static final long NOTIFICATION_TIMEOUT_MILLIS = 5000;
+
+	private final AtomicLong freedBytes = new AtomicLong();
+	private long numOfNotifications = 0;
+	private final long initialCollections;
+	private long startUsed;
+	private long startFreed;
+
+	public AllocationMeter() {
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			if (collector instanceof NotificationEmitter)
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+		// collections counted before the listeners were added don't send notifications anymore
+		initialCollections = getNumOfCollections();
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+			return;
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification
+				.getUserData());
+		long freed = usedBytes(info.getGcInfo().getMemoryUsageBeforeGc())
+				- usedBytes(info.getGcInfo().getMemoryUsageAfterGc());
+		freedBytes.addAndGet(freed);
+		synchronized (this) {
+			numOfNotifications++;
+			notifyAll();
+		}
+	}
+
+	private static long getNumOfCollections() {
+		long collections = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			collections += Math.max(0, collector.getCollectionCount());
+		return collections;
+	}
+
+	/**
+	 * Waits until the notifications of all collections which have been counted
+	 * so far have been handled.
+	 */
+	private synchronized void awaitNotifications() throws InterruptedException {
+		long expected = getNumOfCollections() - initialCollections;
+		long deadline = System.currentTimeMillis() + NOTIFICATION_TIMEOUT_MILLIS;
+		while (numOfNotifications < expected) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				break;
+			wait(remaining);
+		}
+	}
+
+	private static long usedBytes(Map<String, MemoryUsage> usage) {
+		long used = 0;
+		for (MemoryUsage poolUsage : usage.values())
+			used += poolUsage.getUsed();
+		return used;
+	}
+
+	/**
+	 * Collects garbage and starts measuring once the collection has been
+	 * accounted for.
+	 */
+	public void start() throws InterruptedException {
+		System.gc();
+		awaitNotifications();
+		startFreed = freedBytes.get();
+		startUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * @return bytes allocated since {@link #start()}
+	 */
+	public long stop() throws InterruptedException {
+		awaitNotifications();
+		long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		return Math.max(0, used - startUsed + freedBytes.get() - startFreed);
+	}
+}
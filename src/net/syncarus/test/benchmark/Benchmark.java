@@ -0,0 +1,39 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+
+/**
+ * A single benchmark run by the {@link BenchmarkRunner}. The runner calls
+ * {@link #run()} repeatedly between {@link #setUp(File)} and
+ * {@link #tearDown()}.
+ */
+public abstract class Benchmark {
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepares the benchmark, not measured.
+	 *
+	 * @param workDir
+	 *            an empty directory which may be used by the benchmark
+	 */
+	public void setUp(File workDir) throws Exception {
+	}
+
+	/**
+	 * Executes a single operation.
+	 *
+	 * @return number of items processed by the operation, e.g. files
+	 */
+	public abstract long run() throws Exception;
+
+	public void tearDown() throws Exception {
+	}
+}
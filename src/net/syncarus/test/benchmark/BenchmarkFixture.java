@@ -0,0 +1,65 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.syncarus.test.DatasetGenerator;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Creates a pair of directory trees A and B from a fixed seed, so every run
+ * of the benchmarks works on identical data. B is a copy of A with some
+ * differences, see {@link DatasetGenerator}.
+ */
+public class BenchmarkFixture {
+	private static final long SEED = 0x5359_4e43L;
+	private static final int DEPTH = 3;
+	private static final int FOLDERS_PER_FOLDER = 6;
+	private static final int FILES_PER_FOLDER = 20;
+	private static final int MEDIAN_FILE_SIZE = 6 * 1024;
+	private static final int MAX_FILE_SIZE = 16 * 1024;
+	private static final double DIFFERENCE_RATE = 0.15;
+
+	private final File rootA;
+	private final File rootB;
+	private final DatasetGenerator generator = new DatasetGenerator();
+
+	public BenchmarkFixture(File baseDir) {
+		rootA = new File(baseDir, "A");
+		rootB = new File(baseDir, "B");
+		generator.setSeed(SEED);
+		generator.setDepth(DEPTH);
+		generator.setFanOut(FOLDERS_PER_FOLDER);
+		generator.setFilesPerFolder(FILES_PER_FOLDER);
+		generator.setFileSizes(MEDIAN_FILE_SIZE, 1, MAX_FILE_SIZE);
+		generator.setDifferenceRate(DIFFERENCE_RATE);
+	}
+
+	public void create() throws IOException {
+		FileUtils.deleteDirectory(rootA);
+		FileUtils.deleteDirectory(rootB);
+		generator.generate(rootA, rootB);
+	}
+
+	public File getRootA() {
+		return rootA;
+	}
+
+	public File getRootB() {
+		return rootB;
+	}
+
+	/**
+	 * @return number of generated file names, i.e. file pairs
+	 */
+	public long getNumOfFiles() {
+		long numOfFolders = 0;
+		long foldersOnLevel = 1;
+		for (int level = 0; level <= DEPTH; level++) {
+			numOfFolders += foldersOnLevel;
+			foldersOnLevel *= FOLDERS_PER_FOLDER;
+		}
+		return numOfFolders * FILES_PER_FOLDER;
+	}
+}
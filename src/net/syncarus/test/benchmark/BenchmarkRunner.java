@@ -0,0 +1,213 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import net.syncarus.rcp.SyncarusPlugin;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs the benchmarks of the comparison and synchronisation engines without
+ * the workbench:
+ *
+ * <pre>
+ * java -cp ... net.syncarus.test.benchmark.BenchmarkRunner [--work DIR] [--warmup N] [--iterations N]
+ *         [--time MILLIS] [--json FILE] [NAME...]
+ * </pre>
+ *
+ * The fixture is generated from a fixed seed in the work directory. Each
+ * benchmark is run for a number of warm-up iterations, followed by measured
+ * iterations of at least the given time. Only benchmarks whose names start
+ * with one of the given names are run. For each benchmark, the operations
+ * and processed items per second as well as the allocation rate are
+ * reported.
+ */
+public class BenchmarkRunner {
+	private static class Result {
+		String name;
+		double opsPerSecond;
+		double opsError;
+		double itemsPerSecond;
+		double allocatedBytesPerSecond;
+		double allocatedBytesPerOp;
+	}
+
+	private File workDir = new File(System.getProperty("java.io.tmpdir"), "syncarus_benchmark");
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private long iterationTime = 1000;
+	private File jsonFile = null;
+	private final List<String> names = new ArrayList<String>();
+
+	private final AllocationMeter allocationMeter = new AllocationMeter();
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		if (!runner.parseArguments(args)) {
+			System.err.println("Usage: [--work DIR] [--warmup N] [--iterations N] [--time MILLIS] [--json FILE] "
+					+ "[NAME...]");
+			System.exit(64);
+		}
+		runner.runAll();
+	}
+
+	private boolean parseArguments(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--work"))
+					workDir = new File(args[++i]);
+				else if (arg.equals("--warmup"))
+					warmupIterations = Integer.parseInt(args[++i]);
+				else if (arg.equals("--iterations"))
+					iterations = Integer.parseInt(args[++i]);
+				else if (arg.equals("--time"))
+					iterationTime = Long.parseLong(args[++i]);
+				else if (arg.equals("--json"))
+					jsonFile = new File(args[++i]);
+				else if (arg.startsWith("--"))
+					return false;
+				else
+					names.add(arg);
+			}
+		} catch (RuntimeException e) {
+			return false;
+		}
+		return iterations > 0 && iterationTime > 0;
+	}
+
+	private List<Benchmark> createBenchmarks(BenchmarkFixture fixture) {
+		SyncarusPlugin plugin = new SyncarusPlugin();
+		plugin.getProtocol().setHeadless(null);
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new ScanBenchmark(fixture));
+		for (CompareBenchmark.Mode mode : CompareBenchmark.Mode.values())
+			benchmarks.add(new CompareBenchmark(fixture, plugin, mode));
+		for (ContentBenchmark.Mode mode : ContentBenchmark.Mode.values())
+			benchmarks.add(new ContentBenchmark(fixture, mode));
+		benchmarks.add(new CopyBenchmark(fixture));
+		benchmarks.add(new DiffNodeBenchmark(fixture));
+		return benchmarks;
+	}
+
+	private boolean isSelected(Benchmark benchmark) {
+		if (names.isEmpty())
+			return true;
+		for (String name : names)
+			if (benchmark.getName().startsWith(name))
+				return true;
+		return false;
+	}
+
+	private void runAll() throws Exception {
+		BenchmarkFixture fixture = new BenchmarkFixture(new File(workDir, "fixture"));
+		System.out.println("Creating fixture in " + workDir);
+		fixture.create();
+
+		List<Result> results = new ArrayList<Result>();
+		System.out.println(String.format("%-40s %16s %14s %14s %14s", "Benchmark", "ops/s", "items/s",
+				"alloc MB/s", "alloc B/op"));
+		for (Benchmark benchmark : createBenchmarks(fixture)) {
+			if (!isSelected(benchmark))
+				continue;
+			File benchmarkDir = new File(workDir, "work");
+			FileUtils.deleteDirectory(benchmarkDir);
+			benchmarkDir.mkdirs();
+			benchmark.setUp(benchmarkDir);
+			try {
+				Result result = run(benchmark);
+				results.add(result);
+				System.out.println(String.format("%-40s %9.2f +- %4.2f %14.0f %14.1f %14.0f", result.name,
+						result.opsPerSecond, result.opsError, result.itemsPerSecond,
+						result.allocatedBytesPerSecond / (1024 * 1024), result.allocatedBytesPerOp));
+			} finally {
+				benchmark.tearDown();
+			}
+		}
+
+		if (jsonFile != null)
+			writeJson(results);
+	}
+
+	private Result run(Benchmark benchmark) throws Exception {
+		for (int i = 0; i < warmupIterations; i++)
+			runIteration(benchmark, new long[3]);
+
+		double[] opsPerSecond = new double[iterations];
+		long totalOps = 0;
+		long totalItems = 0;
+		long totalNanos = 0;
+		long totalAllocated = 0;
+		for (int i = 0; i < iterations; i++) {
+			// ops, items, nanoseconds
+			long[] counts = new long[3];
+			allocationMeter.start();
+			runIteration(benchmark, counts);
+			totalAllocated += allocationMeter.stop();
+			opsPerSecond[i] = counts[0] * 1e9 / counts[2];
+			totalOps += counts[0];
+			totalItems += counts[1];
+			totalNanos += counts[2];
+		}
+
+		Result result = new Result();
+		result.name = benchmark.getName();
+		result.opsPerSecond = totalOps * 1e9 / totalNanos;
+		result.opsError = standardDeviation(opsPerSecond);
+		result.itemsPerSecond = totalItems * 1e9 / totalNanos;
+		result.allocatedBytesPerSecond = totalAllocated * 1e9 / totalNanos;
+		result.allocatedBytesPerOp = (double) totalAllocated / totalOps;
+		return result;
+	}
+
+	/**
+	 * Runs the benchmark repeatedly until the iteration time has passed.
+	 */
+	private void runIteration(Benchmark benchmark, long[] counts) throws Exception {
+		long start = System.nanoTime();
+		long end = start + iterationTime * 1000000;
+		long now;
+		do {
+			counts[1] += benchmark.run();
+			counts[0]++;
+			now = System.nanoTime();
+		} while (now < end);
+		counts[2] = now - start;
+	}
+
+	private static double standardDeviation(double[] values) {
+		double mean = 0;
+		for (double value : values)
+			mean += value / values.length;
+		double variance = 0;
+		for (double value : values)
+			variance += (value - mean) * (value - mean) / values.length;
+		return Math.sqrt(variance);
+	}
+
+	private void writeJson(List<Result> results) throws Exception {
+		StringBuilder json = new StringBuilder("[\n");
+		for (Result result : results) {
+			json.append(String.format(Locale.ROOT, "  {\"name\": \"%s\", \"opsPerSecond\": %.3f, "
+					+ "\"opsError\": %.3f, \"itemsPerSecond\": %.1f, \"allocatedBytesPerSecond\": %.0f, "
+					+ "\"allocatedBytesPerOp\": %.0f}", result.name, result.opsPerSecond, result.opsError,
+					result.itemsPerSecond, result.allocatedBytesPerSecond, result.allocatedBytesPerOp));
+			json.append(result == results.get(results.size() - 1) ? "\n" : ",\n");
+		}
+		json.append("]\n");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(jsonFile), "UTF-8");
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+
+import net.syncarus.core.DiffTask;
+import net.syncarus.core.Settings;
+import net.syncarus.core.SyncarusTask;
+import net.syncarus.rcp.SyncarusPlugin;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.preference.PreferenceStore;
+
+/**
+ * Runs a complete {@link DiffTask} on the fixture using one of the comparison
+ * strategies of the {@link Settings}. Neither the snapshot index nor the
+ * checksum cache are used, so every run does the full work.
+ */
+public class CompareBenchmark extends Benchmark implements SyncarusTask.Observer {
+	public static enum Mode {
+		TIMESTAMPS, CHECKSUM_IF_POTENTIALLY_EQUAL, ALWAYS_CHECKSUM
+	}
+
+	private final BenchmarkFixture fixture;
+	private final SyncarusPlugin plugin;
+	private final Mode mode;
+	private SyncarusTask failedTask = null;
+
+	public CompareBenchmark(BenchmarkFixture fixture, SyncarusPlugin plugin, Mode mode) {
+		super("compare[" + mode.name().toLowerCase() + "]");
+		this.fixture = fixture;
+		this.plugin = plugin;
+		this.mode = mode;
+	}
+
+	@Override
+	public void setUp(File workDir) {
+		PreferenceStore store = new PreferenceStore();
+		plugin.initSettings(store);
+		store.setValue(Settings.PREFKEY_USE_SNAPSHOT_INDEX, false);
+		store.setValue(Settings.PREFKEY_USE_CHECKSUM_CACHE, false);
+		store.setValue(Settings.PREFKEY_EXPORT_METRICS, false);
+		store.setValue(Settings.PREFKEY_CHECKSUM_IF_POTENTIALLY_EQUAL, mode == Mode.CHECKSUM_IF_POTENTIALLY_EQUAL);
+		store.setValue(Settings.PREFKEY_ALWAYS_CHECKSUM, mode == Mode.ALWAYS_CHECKSUM);
+		plugin.initialize(fixture.getRootA(), fixture.getRootB());
+	}
+
+	@Override
+	public long run() throws Exception {
+		new DiffTask(plugin, this).run(new NullProgressMonitor());
+		if (failedTask != null)
+			throw new IllegalStateException(failedTask.getTitle() + ": " + failedTask.getMessage(),
+					failedTask.getError());
+		return fixture.getNumOfFiles();
+	}
+
+	@Override
+	public void taskFinished(SyncarusTask task) {
+		if (task.getOutcome() != SyncarusTask.Outcome.COMPLETED)
+			failedTask = task;
+	}
+}
@@ -0,0 +1,77 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.syncarus.core.ChecksumCache;
+import net.syncarus.core.ContentComparator;
+import net.syncarus.core.DirectoryScanner;
+import net.syncarus.core.FileEntry;
+
+/**
+ * Compares the content of all file pairs of equal size with a
+ * {@link ContentComparator}: reading through buffers, memory-mapping every
+ * file or looking up the checksums in a warm {@link ChecksumCache}.
+ */
+public class ContentBenchmark extends Benchmark {
+	public static enum Mode {
+		BUFFERED, MAPPED, CACHED
+	}
+
+	private final BenchmarkFixture fixture;
+	private final Mode mode;
+	private final List<FileEntry[]> pairs = new ArrayList<FileEntry[]>();
+	private ContentComparator comparator;
+
+	public ContentBenchmark(BenchmarkFixture fixture, Mode mode) {
+		super("content[" + mode.name().toLowerCase() + "]");
+		this.fixture = fixture;
+		this.mode = mode;
+	}
+
+	@Override
+	public void setUp(File workDir) throws IOException {
+		pairs.clear();
+		collectPairs(fixture.getRootA(), fixture.getRootB());
+		switch (mode) {
+		case BUFFERED:
+			comparator = new ContentComparator(null);
+			break;
+		case MAPPED:
+			comparator = new ContentComparator(null, 1, 64 * 1024 * 1024);
+			break;
+		case CACHED:
+			comparator = new ContentComparator(new ChecksumCache(new File(workDir, "checksums.log")));
+			// fill the cache
+			run();
+			break;
+		}
+	}
+
+	private void collectPairs(File directoryA, File directoryB) throws IOException {
+		Map<String, FileEntry> entriesB = new HashMap<String, FileEntry>();
+		for (FileEntry entryB : DirectoryScanner.list(directoryB))
+			entriesB.put(entryB.getName(), entryB);
+
+		for (FileEntry entryA : DirectoryScanner.list(directoryA)) {
+			FileEntry entryB = entriesB.get(entryA.getName());
+			if (entryB == null)
+				continue;
+			if (entryA.isDirectory() && entryB.isDirectory())
+				collectPairs(entryA.getFile(), entryB.getFile());
+			else if (entryA.isFile() && entryB.isFile() && entryA.getSize() == entryB.getSize())
+				pairs.add(new FileEntry[] { entryA, entryB });
+		}
+	}
+
+	@Override
+	public long run() throws IOException {
+		for (FileEntry[] pair : pairs)
+			comparator.contentEquals(pair[0], pair[1]);
+		return pairs.size();
+	}
+}
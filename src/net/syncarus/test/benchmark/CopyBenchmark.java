@@ -0,0 +1,39 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.syncarus.core.FileOperation;
+import net.syncarus.model.CancelationException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Copies tree A of the fixture with {@link FileOperation#copy}, which
+ * deletes the copy of the previous run first.
+ */
+public class CopyBenchmark extends Benchmark {
+	private final BenchmarkFixture fixture;
+	private File target;
+
+	public CopyBenchmark(BenchmarkFixture fixture) {
+		super("copy");
+		this.fixture = fixture;
+	}
+
+	@Override
+	public void setUp(File workDir) {
+		target = new File(workDir, "copy");
+	}
+
+	@Override
+	public long run() throws IOException, CancelationException {
+		FileOperation.copy(fixture.getRootA(), target, null);
+		return fixture.getNumOfFiles();
+	}
+
+	@Override
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(target);
+	}
+}
@@ -0,0 +1,54 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+
+import net.syncarus.model.DiffNode;
+import net.syncarus.model.DiffStatus;
+
+/**
+ * Builds a comparison tree in memory, prepares it like the comparison does
+ * for the viewer, checks all nodes, removes half of the files and cleans the
+ * tree up, as the synchronisation does.
+ */
+public class DiffNodeBenchmark extends Benchmark {
+	private static final int FOLDERS = 100;
+	private static final int FILES_PER_FOLDER = 1000;
+	private static final DiffStatus[] STATUSES = { DiffStatus.COPY_TO_A, DiffStatus.COPY_TO_B,
+			DiffStatus.REPLACE_A, DiffStatus.REPLACE_B, DiffStatus.TOUCH, DiffStatus.CONFLICT_TIME };
+
+	private final BenchmarkFixture fixture;
+
+	public DiffNodeBenchmark(BenchmarkFixture fixture) {
+		super("diffNode");
+		this.fixture = fixture;
+	}
+
+	@Override
+	public void setUp(File workDir) {
+		// the root requires existing directories
+		fixture.getRootA().mkdirs();
+		fixture.getRootB().mkdirs();
+	}
+
+	@Override
+	public long run() {
+		DiffNode root = DiffNode.createRoot(fixture.getRootA(), fixture.getRootB());
+		for (int i = FOLDERS - 1; i >= 0; i--) {
+			DiffNode folder = root.createChildNode("dir_" + i, true, DiffStatus.CLEAN);
+			for (int j = FILES_PER_FOLDER - 1; j >= 0; j--)
+				folder.createChildNode("file_" + j, false, STATUSES[j % STATUSES.length]);
+		}
+		root.sortChildren();
+		root.updateCounts();
+		root.setSubtreeChecked(true);
+		if (root.getCheckedDescendants().size() != FOLDERS * (FILES_PER_FOLDER + 1))
+			throw new IllegalStateException("unexpected number of checked nodes");
+
+		for (DiffNode folder : root.getChildren())
+			for (DiffNode file : folder.getChildren())
+				if (file.getName().hashCode() % 2 == 0)
+					file.remove();
+		root.clean();
+		return FOLDERS * FILES_PER_FOLDER;
+	}
+}
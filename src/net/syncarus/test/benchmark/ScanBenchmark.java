@@ -0,0 +1,36 @@
+package net.syncarus.test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.syncarus.core.DirectoryScanner;
+import net.syncarus.core.FileEntry;
+
+/**
+ * Lists both trees of the fixture recursively with the
+ * {@link DirectoryScanner}, just like the comparison does, but without
+ * comparing anything.
+ */
+public class ScanBenchmark extends Benchmark {
+	private final BenchmarkFixture fixture;
+
+	public ScanBenchmark(BenchmarkFixture fixture) {
+		super("scan");
+		this.fixture = fixture;
+	}
+
+	@Override
+	public long run() throws IOException {
+		return scan(fixture.getRootA()) + scan(fixture.getRootB());
+	}
+
+	private static long scan(File directory) throws IOException {
+		long numOfEntries = 0;
+		for (FileEntry entry : DirectoryScanner.list(directory)) {
+			numOfEntries++;
+			if (entry.isDirectory())
+				numOfEntries += scan(entry.getFile());
+		}
+		return numOfEntries;
+	}
+}